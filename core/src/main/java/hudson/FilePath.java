@@ -27,8 +27,10 @@ package hudson;
 
 import jenkins.util.SystemProperties;
 import com.google.common.annotations.VisibleForTesting;
+import com.jcraft.jzlib.Deflater;
 import com.jcraft.jzlib.GZIPInputStream;
 import com.jcraft.jzlib.GZIPOutputStream;
+import com.jcraft.jzlib.JZlib;
 import hudson.Launcher.LocalLauncher;
 import hudson.Launcher.RemoteLauncher;
 import hudson.model.AbstractProject;
@@ -112,6 +114,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -707,6 +710,19 @@ public final class FilePath implements Serializable {
             public OutputStream compress(OutputStream out) throws IOException {
                 return new GZIPOutputStream(new BufferedOutputStream(out));
             }
+        },
+        /**
+         * Same format as {@link #GZIP}, but favors speed over compression ratio.
+         * @since 2.6
+         */
+        GZIP_FAST {
+            public InputStream extract(InputStream in) throws IOException {
+                return GZIP.extract(in);
+            }
+            public OutputStream compress(OutputStream out) throws IOException {
+                // 15+16: maximum window, with the gzip header
+                return new GZIPOutputStream(new BufferedOutputStream(out), new Deflater(JZlib.Z_BEST_SPEED, 15+16), 512, true);
+            }
         };
 
         public abstract InputStream extract(InputStream in) throws IOException;
@@ -1779,6 +1795,7 @@ public final class FilePath implements Serializable {
             return new FileInputStream(reading(new File(remote)));
 
         final Pipe p = Pipe.createRemoteToLocal();
+        final int chunkSize = chunkSize();
         actAsync(new SecureFileCallable<Void>() {
             private static final long serialVersionUID = 1L;
 
@@ -1787,7 +1804,7 @@ public final class FilePath implements Serializable {
                 FileInputStream fis = null;
                 try {
                     fis = new FileInputStream(reading(f));
-                    Util.copyStream(fis, p.getOut());
+                    copyInChunks(fis, p.getOut(), chunkSize);
                 } catch (Exception x) {
                     p.error(x);
                 } finally {
@@ -1842,16 +1859,17 @@ public final class FilePath implements Serializable {
         }
 
         final Pipe p = Pipe.createRemoteToLocal();
+        final int chunkSize = chunkSize();
         actAsync(new SecureFileCallable<Void>() {
             private static final long serialVersionUID = 1L;
 
             public Void invoke(File f, VirtualChannel channel) throws IOException {
-                final OutputStream out = new java.util.zip.GZIPOutputStream(p.getOut(), 8192);
+                final OutputStream out = new java.util.zip.GZIPOutputStream(p.getOut(), chunkSize);
                 RandomAccessFile raf = null;
                 try {
                     raf = new RandomAccessFile(reading(f), "r");
                     raf.seek(offset);
-                    byte[] buf = new byte[8192];
+                    byte[] buf = new byte[chunkSize];
                     int len;
                     while ((len = raf.read(buf)) >= 0) {
                         out.write(buf, 0, len);
@@ -1870,7 +1888,7 @@ public final class FilePath implements Serializable {
             }
         });
 
-        return new java.util.zip.GZIPInputStream(p.getIn());
+        return new java.util.zip.GZIPInputStream(p.getIn(), chunkSize);
     }
 
     /**
@@ -1907,7 +1925,7 @@ public final class FilePath implements Serializable {
             return new FileOutputStream(writing(f));
         }
 
-        return act(new SecureFileCallable<OutputStream>() {
+        OutputStream out = act(new SecureFileCallable<OutputStream>() {
             private static final long serialVersionUID = 1L;
             public OutputStream invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
                 f = f.getAbsoluteFile();
@@ -1916,6 +1934,18 @@ public final class FilePath implements Serializable {
                 return new RemoteOutputStream(fos);
             }
         });
+        // each write to the remote stream is sent on its own, whatever its size
+        return new BufferedOutputStream(out, chunkSize()) {
+            @Override
+            public void close() throws IOException {
+                // unlike FilterOutputStream, don't swallow a failure to flush
+                try {
+                    flush();
+                } finally {
+                    out.close();
+                }
+            }
+        };
     }
 
     /**
@@ -2008,6 +2038,31 @@ public final class FilePath implements Serializable {
      */
     public void copyTo(FilePath target) throws IOException, InterruptedException {
         try {
+            if (channel == target.channel) {
+                // both on the same machine, so no need to send the contents back and forth
+                final String to = target.remote;
+                final int chunkSize = chunkSize();
+                act(new SecureFileCallable<Void>() {
+                    private static final long serialVersionUID = 1L;
+                    public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+                        File t = new File(to).getAbsoluteFile();
+                        mkdirs(t.getParentFile());
+                        FileInputStream in = new FileInputStream(reading(f));
+                        try {
+                            FileOutputStream out = new FileOutputStream(writing(t));
+                            try {
+                                copyInChunks(in, out, chunkSize);
+                            } finally {
+                                out.close();
+                            }
+                        } finally {
+                            in.close();
+                        }
+                        return null;
+                    }
+                });
+                return;
+            }
             OutputStream out = target.write();
             try {
                 copyTo(out);
@@ -2035,6 +2090,7 @@ public final class FilePath implements Serializable {
      */
     public void copyTo(OutputStream os) throws IOException, InterruptedException {
         final OutputStream out = new RemoteOutputStream(os);
+        final int chunkSize = chunkSize();
 
         act(new SecureFileCallable<Void>() {
             private static final long serialVersionUID = 4088559042349254141L;
@@ -2042,7 +2098,7 @@ public final class FilePath implements Serializable {
                 FileInputStream fis = null;
                 try {
                     fis = new FileInputStream(reading(f));
-                    Util.copyStream(fis,out);
+                    copyInChunks(fis,out,chunkSize);
                     return null;
                 } finally {
                     org.apache.commons.io.IOUtils.closeQuietly(fis);
@@ -2256,6 +2312,116 @@ public final class FilePath implements Serializable {
     }
 
 
+    /**
+     * Like {@link #copyRecursiveTo(DirScanner, FilePath, String)}, but when copying from an agent to the master,
+     * the files are sent as several tar streams at once and unpacked by as many threads.
+     *
+     * <p>
+     * The remote side scans the files just once and hands each file to the stream with the fewest
+     * pending bytes, so the scan, the transfer and the extraction overlap, and a large file doesn't hold up
+     * the small ones behind it. This pays off when the round trip of the channel, rather than its bandwidth,
+     * limits a single stream, typically with many small files.
+     * Other combinations of source and target fall back to the single stream copy.
+     *
+     * @param streams number of concurrent streams; 1 or less is the same as the single stream copy
+     * @param compression how each stream is compressed
+     * @param listener if not null, receives a summary of the throughput
+     * @return the number of files copied
+     * @since 2.6
+     */
+    public int copyRecursiveTo(final DirScanner scanner, final FilePath target, final String description,
+                               int streams, final TarCompression compression, @CheckForNull TaskListener listener) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        if (streams <= 1 || channel == null || target.channel != null || channel == target.channel) {
+            int count = copyRecursiveTo(scanner, target, description);
+            if (listener != null)
+                listener.getLogger().printf("Copied %d files in %dms%n", count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return count;
+        }
+
+        // remote -> local copy
+        final Pipe[] pipes = new Pipe[streams];
+        for (int i = 0; i < streams; i++)
+            pipes[i] = Pipe.createRemoteToLocal();
+
+        Future<Integer> future = actAsync(new SecureFileCallable<Integer>() {
+            private static final long serialVersionUID = 1L;
+            public Integer invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+                OutputStream[] outs = new OutputStream[pipes.length];
+                for (int i = 0; i < pipes.length; i++)
+                    outs[i] = pipes[i].getOut();
+                try {
+                    return writeToTars(f, scanner, outs, compression);
+                } finally {
+                    for (OutputStream out : outs)
+                        out.close();
+                }
+            }
+        });
+
+        final File dest = new File(target.remote);
+        final CountingInputStream[] raw = new CountingInputStream[streams];
+        final CountingInputStream[] extracted = new CountingInputStream[streams];
+        List<java.util.concurrent.Future<?>> readers = new ArrayList<java.util.concurrent.Future<?>>();
+        for (int i = 0; i < streams; i++) {
+            final int stream = i;
+            readers.add(threadPoolForRemoting.submit(new java.util.concurrent.Callable<Void>() {
+                public Void call() throws IOException {
+                    InputStream in = pipes[stream].getIn();
+                    try {
+                        raw[stream] = new CountingInputStream(in);
+                        extracted[stream] = new CountingInputStream(compression.extract(raw[stream]));
+                        readFromTar(remote + '/' + description, dest, extracted[stream]);
+                        return null;
+                    } finally {
+                        // lets the remote side notice if we stopped early
+                        in.close();
+                    }
+                }
+            }));
+        }
+        IOException failure = null;
+        for (java.util.concurrent.Future<?> r : readers) {
+            try {
+                r.get();
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        if (failure != null) {
+            try {
+                future.get(3,TimeUnit.SECONDS);
+                throw failure;    // the remote side completed successfully, so the error must be local
+            } catch (ExecutionException x) {
+                // report both errors
+                throw new IOException(Functions.printThrowable(failure),x);
+            } catch (TimeoutException _) {
+                // remote is hanging
+                throw failure;
+            }
+        }
+        int count;
+        try {
+            count = future.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e);
+        }
+
+        if (listener != null) {
+            long bytes = 0, wire = 0;
+            for (int i = 0; i < streams; i++) {
+                if (raw[i] != null)         wire += raw[i].getByteCount();
+                if (extracted[i] != null)   bytes += extracted[i].getByteCount();
+            }
+            long ms = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            listener.getLogger().printf("Copied %d files (%s, %s over the channel) in %dms using %d streams: %s/s%n",
+                    count, Functions.humanReadableByteSize(bytes), Functions.humanReadableByteSize(wire), ms, streams,
+                    Functions.humanReadableByteSize(bytes * 1000 / ms));
+        }
+        return count;
+    }
+
     /**
      * Writes files in 'this' directory to a tar stream.
      *
@@ -2293,6 +2459,91 @@ public final class FilePath implements Serializable {
         return tw.countEntries();
     }
 
+    /**
+     * Writes to several tar streams at once, each from its own thread, spreading files by pending bytes.
+     *
+     * @return
+     *      number of files/directories that are written.
+     */
+    private Integer writeToTars(File baseDir, DirScanner scanner, OutputStream[] outs, TarCompression compression) throws IOException, InterruptedException {
+        final int n = outs.length;
+        final Archiver[] tars = new Archiver[n];
+        final ExecutorService[] writers = new ExecutorService[n];
+        final AtomicLong[] pending = new AtomicLong[n];
+        final List<java.util.concurrent.Future<?>> writes = new ArrayList<java.util.concurrent.Future<?>>();
+        try {
+            for (int i = 0; i < n; i++) {
+                tars[i] = ArchiverFactory.TAR.create(compression.compress(outs[i]));
+                writers[i] = Executors.newSingleThreadExecutor(new NamingThreadFactory(new DaemonThreadFactory(), "FilePath.writeToTars"));
+                pending[i] = new AtomicLong();
+            }
+            scanner.scan(baseDir, reading(new FileVisitor() {
+                private int pick(long size) {
+                    int best = 0;
+                    for (int i = 1; i < n; i++) {
+                        if (pending[i].get() < pending[best].get())
+                            best = i;
+                    }
+                    pending[best].addAndGet(size);
+                    return best;
+                }
+
+                @Override
+                public void visit(final File f, final String relativePath) throws IOException {
+                    final long size = f.isFile() ? f.length() : 0;
+                    final int i = pick(size);
+                    writes.add(writers[i].submit(new java.util.concurrent.Callable<Void>() {
+                        public Void call() throws IOException {
+                            try {
+                                tars[i].visit(f, relativePath);
+                            } finally {
+                                pending[i].addAndGet(-size);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+
+                @Override
+                public boolean understandsSymlink() {
+                    return true;
+                }
+
+                @Override
+                public void visitSymlink(final File link, final String target, final String relativePath) throws IOException {
+                    final int i = pick(0);
+                    writes.add(writers[i].submit(new java.util.concurrent.Callable<Void>() {
+                        public Void call() throws IOException {
+                            tars[i].visitSymlink(link, target, relativePath);
+                            return null;
+                        }
+                    }));
+                }
+            }));
+            for (java.util.concurrent.Future<?> w : writes) {
+                try {
+                    w.get();
+                } catch (ExecutionException e) {
+                    Throwable t = e.getCause();
+                    throw t instanceof IOException ? (IOException) t : new IOException(t);
+                }
+            }
+        } finally {
+            for (ExecutorService w : writers) {
+                if (w != null)
+                    w.shutdownNow();
+            }
+            for (Archiver tw : tars) {
+                if (tw != null)
+                    tw.close();
+            }
+        }
+        int count = 0;
+        for (Archiver tw : tars)
+            count += tw.countEntries();
+        return count;
+    }
+
     /**
      * Reads from a tar stream and stores obtained files to the base dir.
      * @since TODO supports large files > 10 GB, migration to commons-compress
@@ -2378,6 +2629,37 @@ public final class FilePath implements Serializable {
         return validateAntFileMask(fileMasks, bound, true);
     }
 
+    /**
+     * Like {@link Util#copyStream(InputStream, OutputStream)}, but with a buffer of the given size,
+     * which is also the size of what gets sent at once when {@code out} goes to another machine.
+     */
+    private static void copyInChunks(InputStream in, OutputStream out, int chunkSize) throws IOException {
+        byte[] buf = new byte[chunkSize];
+        int len;
+        while ((len = in.read(buf)) >= 0)
+            out.write(buf, 0, len);
+    }
+
+    /**
+     * {@link #CHUNK_SIZE}, but no less than {@link #MIN_CHUNK_SIZE}, as 0 would copy nothing forever
+     * and tiny chunks would flood the channel.
+     */
+    private static int chunkSize() {
+        return Math.max(CHUNK_SIZE, MIN_CHUNK_SIZE);
+    }
+
+    private static final int MIN_CHUNK_SIZE = 8192;
+
+    /**
+     * Size, in bytes, of the chunks in which {@link #read()}, {@link #readFromOffset(long)}, {@link #write()}
+     * and {@link #copyTo(OutputStream)} send file contents over a channel.
+     * How much of it can be on its way before the receiver acknowledges it is set on the sending side
+     * by the {@code hudson.remoting.Channel.pipeWindowSize} system property.
+     * Values below 8192 are treated as 8192.
+     * @since TODO
+     */
+    public static int CHUNK_SIZE = SystemProperties.getInteger(FilePath.class.getName() + ".chunkSize", 65536);
+
     /**
      * Default bound for {@link #validateAntFileMask(String, int, boolean)}.
      * @since 1.592
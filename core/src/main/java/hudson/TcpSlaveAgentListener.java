@@ -23,14 +23,33 @@
  */
 package hudson;
 
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.util.SystemProperties;
 import hudson.slaves.OfflineCause;
+import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import jenkins.AgentProtocol;
 
 import java.io.BufferedWriter;
@@ -59,12 +78,33 @@ import org.apache.commons.io.IOUtils;
  * This class accepts the socket, then after a short handshaking, it dispatches to appropriate
  * {@link AgentProtocol}s.
  *
+ * <p>
+ * Accepting connections and reading which protocol they ask for is done by this thread alone, without blocking.
+ * Protocols that {@linkplain AgentProtocol#isHandshakeOnly() only handle the handshake} then run on a bounded pool
+ * of {@link #HANDLER_THREADS} threads. When {@link #MAX_PENDING_CONNECTIONS} of their connections are being handled
+ * or waiting to be, new connections are left to queue up in the operating system until some complete, which is what
+ * happens when thousands of agents reconnect after a restart. Other protocols get a thread per connection.
+ *
  * @author Kohsuke Kawaguchi
  * @see AgentProtocol
  */
 public final class TcpSlaveAgentListener extends Thread {
 
     private final ServerSocketChannel serverSocket;
+    private final Selector selector;
+    /**
+     * Runs protocols that only handle the handshake.
+     */
+    private final ExecutorService handlers;
+    /**
+     * Runs protocols that may keep the thread for as long as the connection lasts.
+     */
+    private final ExecutorService dedicated;
+    /**
+     * Connections accepted whose handling hasn't completed yet.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ConcurrentMap<String,HandshakeStatistics> statistics = new ConcurrentHashMap<String,HandshakeStatistics>();
     private volatile boolean shuttingDown;
 
     public final int configuredPort;
@@ -82,6 +122,20 @@ public final class TcpSlaveAgentListener extends Thread {
             throw (BindException)new BindException("Failed to listen on port "+port+" because it's already in use.").initCause(e);
         }
         this.configuredPort = port;
+        serverSocket.configureBlocking(false);
+        selector = Selector.open();
+        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+
+        NamingThreadFactory factory = new NamingThreadFactory(new DaemonThreadFactory(), "TCP agent connection handler");
+        dedicated = Executors.newCachedThreadPool(factory);
+        if (HANDLER_THREADS > 0) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(HANDLER_THREADS, HANDLER_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), factory);
+            pool.allowCoreThreadTimeOut(true);
+            handlers = pool;
+        } else {
+            handlers = dedicated;
+        }
 
         LOGGER.log(Level.FINE, "JNLP agent listener started on TCP port {0}", getPort());
 
@@ -103,26 +157,104 @@ public final class TcpSlaveAgentListener extends Thread {
         return CLI_PORT != null ? CLI_PORT : getPort();
     }
 
+    /**
+     * Time taken to establish connections so far, by protocol name.
+     * Only protocols that {@linkplain AgentProtocol#isHandshakeOnly() only handle the handshake} are measured,
+     * as the others take as long as their connections last.
+     * @since TODO
+     */
+    public Map<String,HandshakeStatistics> getHandshakeStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
     @Override
     public void run() {
+        SelectionKey acceptKey = serverSocket.keyFor(selector);
         try {
             // the loop eventually terminates when the socket is closed.
             while (!shuttingDown) {
-                Socket s = serverSocket.accept().socket();
+                // back pressure: stop accepting while there's enough to do
+                acceptKey.interestOps(pending.get() < MAX_PENDING_CONNECTIONS ? SelectionKey.OP_ACCEPT : 0);
+                selector.select(1000);
+
+                List<Preamble> complete = new ArrayList<Preamble>();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        Preamble p = (Preamble) key.attachment();
+                        if (p.read()) {
+                            key.cancel();
+                            complete.add(p);
+                        }
+                    }
+                }
 
-                // this prevents a connection from silently terminated by the router in between or the other peer
-                // and that goes without unnoticed. However, the time out is often very long (for example 2 hours
-                // by default in Linux) that this alone is enough to prevent that.
-                s.setKeepAlive(true);
-                // we take care of buffering on our own
-                s.setTcpNoDelay(true);
+                long now = System.currentTimeMillis();
+                for (SelectionKey key : selector.keys()) {
+                    Object a = key.attachment();
+                    if (key.isValid() && a instanceof Preamble && now - ((Preamble) a).accepted > PREAMBLE_TIMEOUT) {
+                        key.cancel();
+                        ((Preamble) a).abort("timed out waiting for the protocol name");
+                    }
+                }
 
-                new ConnectionHandler(s).start();
+                if (!complete.isEmpty()) {
+                    // deregisters the canceled keys, so that the sockets can be put back to blocking mode
+                    selector.selectNow();
+                    for (Preamble p : complete) {
+                        p.dispatch();
+                    }
+                }
             }
         } catch (IOException e) {
             if(!shuttingDown) {
                 LOGGER.log(Level.SEVERE,"Failed to accept JNLP agent connections",e);
             }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                IOUtils.closeQuietly(key.channel());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the selector", e);
+            }
+            handlers.shutdown();
+            dedicated.shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        while (pending.get() < MAX_PENDING_CONNECTIONS) {
+            SocketChannel ch = serverSocket.accept();
+            if (ch == null) {
+                return;
+            }
+            Socket s = ch.socket();
+
+            // this prevents a connection from silently terminated by the router in between or the other peer
+            // and that goes without unnoticed. However, the time out is often very long (for example 2 hours
+            // by default in Linux) that this alone is enough to prevent that.
+            s.setKeepAlive(true);
+            // we take care of buffering on our own
+            s.setTcpNoDelay(true);
+
+            pending.incrementAndGet();
+            try {
+                ch.configureBlocking(false);
+                ch.register(selector, SelectionKey.OP_READ, new Preamble(ch));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to handle connection from " + s.getRemoteSocketAddress(), e);
+                IOUtils.closeQuietly(ch);
+                pending.decrementAndGet();
+            }
         }
     }
 
@@ -131,16 +263,7 @@ public final class TcpSlaveAgentListener extends Thread {
      */
     public void shutdown() {
         shuttingDown = true;
-        try {
-            SocketAddress localAddress = serverSocket.getLocalAddress();
-            if (localAddress instanceof InetSocketAddress) {
-                InetSocketAddress address = (InetSocketAddress) localAddress;
-                Socket client = new Socket(address.getHostName(), address.getPort());
-                new PingAgentProtocol().connect(client);
-            }
-        } catch (IOException e) {
-            LOGGER.log(Level.FINE, "Failed to send Ping to wake acceptor loop", e);
-        }
+        selector.wakeup();
         try {
             serverSocket.close();
         } catch (IOException e) {
@@ -148,39 +271,125 @@ public final class TcpSlaveAgentListener extends Thread {
         }
     }
 
-    private final class ConnectionHandler extends Thread {
+    /**
+     * Reads the protocol name a client starts with, as written by {@link DataOutputStream#writeUTF(String)},
+     * as it arrives.
+     */
+    private final class Preamble {
+        private final SocketChannel ch;
+        private final long accepted = System.currentTimeMillis();
+        private final ByteBuffer length = ByteBuffer.allocate(2);
+        private ByteBuffer data;
+
+        Preamble(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        /**
+         * @return true once the whole protocol name was read.
+         */
+        boolean read() {
+            try {
+                if (data == null) {
+                    if (ch.read(length) < 0) {
+                        abort("closed before sending the protocol name");
+                        return false;
+                    }
+                    if (length.hasRemaining()) {
+                        return false;
+                    }
+                    data = ByteBuffer.allocate(2 + (length.getShort(0) & 0xFFFF));
+                    data.put(length.array());
+                }
+                if (ch.read(data) < 0) {
+                    abort("closed before sending the protocol name");
+                    return false;
+                }
+                return !data.hasRemaining();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read from " + ch.socket().getRemoteSocketAddress(), e);
+                abort(null);
+                return false;
+            }
+        }
+
+        void abort(String why) {
+            if (why != null) {
+                LOGGER.log(Level.FINE, "Connection from {0} {1}", new Object[] {ch.socket().getRemoteSocketAddress(), why});
+            }
+            IOUtils.closeQuietly(ch);
+            pending.decrementAndGet();
+        }
+
+        void dispatch() {
+            String header;
+            try {
+                ch.configureBlocking(true);
+                header = new DataInputStream(new ByteArrayInputStream(data.array())).readUTF();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to handle connection from " + ch.socket().getRemoteSocketAddress(), e);
+                abort(null);
+                return;
+            }
+            AgentProtocol p = header.startsWith("Protocol:") ? AgentProtocol.of(header.substring(9)) : null;
+            if (p == null || p.isHandshakeOnly()) {
+                // rejecting an unknown protocol is quick too
+                handlers.execute(new ConnectionHandler(ch.socket(), header, accepted, true));
+            } else {
+                // may never return, so neither wait for a pool thread nor count against back pressure
+                pending.decrementAndGet();
+                dedicated.execute(new ConnectionHandler(ch.socket(), header, accepted, false));
+            }
+        }
+    }
+
+    private final class ConnectionHandler implements Runnable {
         private final Socket s;
+        private final String header;
+        private final long accepted;
+        /**
+         * Whether this runs on the bounded pool, counts against back pressure and goes into the statistics.
+         */
+        private final boolean handshakeOnly;
         /**
          * Unique number to identify this connection. Used in the log.
          */
         private final int id;
 
-        public ConnectionHandler(Socket s) {
+        public ConnectionHandler(Socket s, String header, long accepted, boolean handshakeOnly) {
             this.s = s;
+            this.header = header;
+            this.accepted = accepted;
+            this.handshakeOnly = handshakeOnly;
             synchronized(getClass()) {
                 id = iotaGen++;
             }
-            setName("TCP agent connection handler #"+id+" with "+s.getRemoteSocketAddress());
         }
 
         @Override
         public void run() {
+            Thread t = Thread.currentThread();
+            String oldName = t.getName();
+            t.setName("TCP agent connection handler #"+id+" with "+s.getRemoteSocketAddress());
+            String name = null;
+            boolean success = false;
             try {
                 LOGGER.log(Level.INFO, "Accepted connection #{0} from {1}", new Object[]{id,s.getRemoteSocketAddress()});
 
-                DataInputStream in = new DataInputStream(s.getInputStream());
                 PrintWriter out = new PrintWriter(
                         new BufferedWriter(new OutputStreamWriter(s.getOutputStream(),"UTF-8")),
                         true); // DEPRECATED: newer protocol shouldn't use PrintWriter but should use DataOutputStream
 
-                String s = in.readUTF();
+                String s = header;
 
                 if(s.startsWith("Protocol:")) {
                     String protocol = s.substring(9);
                     AgentProtocol p = AgentProtocol.of(protocol);
-                    if (p!=null)
+                    if (p!=null) {
+                        name = protocol;
                         p.handle(this.s);
-                    else
+                        success = true;
+                    } else
                         error(out, "Unknown protocol:" + s);
                 } else {
                     error(out, "Unrecognized protocol: "+s);
@@ -199,6 +408,31 @@ public final class TcpSlaveAgentListener extends Thread {
                 } catch (IOException _) {
                     // try to clean up the socket
                 }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING,"Connection #"+id+" failed",e);
+                try {
+                    s.close();
+                } catch (IOException _) {
+                    // try to clean up the socket
+                }
+            } finally {
+                if (name != null && handshakeOnly) {
+                    long elapsed = System.currentTimeMillis() - accepted;
+                    HandshakeStatistics stats = statistics.get(name);
+                    if (stats == null) {
+                        HandshakeStatistics other = statistics.putIfAbsent(name, stats = new HandshakeStatistics());
+                        if (other != null) {
+                            stats = other;
+                        }
+                    }
+                    stats.record(elapsed, success);
+                    LOGGER.log(Level.FINE, "Connection #{0} handled by {1} in {2}ms", new Object[] {id, name, elapsed});
+                }
+                t.setName(oldName);
+                if (handshakeOnly && pending.getAndDecrement() == MAX_PENDING_CONNECTIONS) {
+                    // resume accepting
+                    selector.wakeup();
+                }
             }
         }
 
@@ -209,9 +443,51 @@ public final class TcpSlaveAgentListener extends Thread {
         }
     }
 
+    /**
+     * How long connections took to be established by a protocol, from the time they were accepted until
+     * {@link AgentProtocol#handle(Socket)} returned, which includes waiting for a thread when many clients
+     * connect at once.
+     * @since TODO
+     */
+    public static final class HandshakeStatistics {
+        private long count;
+        private long failures;
+        private long totalMillis;
+        private long maxMillis;
+
+        synchronized void record(long millis, boolean success) {
+            count++;
+            if (!success) {
+                failures++;
+            }
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        public synchronized long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        public synchronized long getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return count + " connections (" + failures + " failed), " + getAverageMillis() + "ms average, " + maxMillis + "ms max";
+        }
+    }
+
     /**
      * This extension provides a Ping protocol that allows people to verify that the TcpSlaveAgentListener is alive.
-     * We also use this to wake the acceptor thread on termination.
      *
      * @since 1.653
      */
@@ -233,6 +509,11 @@ public final class TcpSlaveAgentListener extends Thread {
             return "Ping";
         }
 
+        @Override
+        public boolean isHandshakeOnly() {
+            return true;
+        }
+
         @Override
         public void handle(Socket socket) throws IOException, InterruptedException {
             try {
@@ -315,6 +596,25 @@ public final class TcpSlaveAgentListener extends Thread {
      * @since 1.611
      */
     public static Integer CLI_PORT = SystemProperties.getInteger(TcpSlaveAgentListener.class.getName()+".port");
+
+    /**
+     * Number of threads running {@link AgentProtocol}s that {@linkplain AgentProtocol#isHandshakeOnly() only handle
+     * the handshake}; 0 or less to use as many as there are connections.
+     * @since TODO
+     */
+    public static int HANDLER_THREADS = SystemProperties.getInteger(TcpSlaveAgentListener.class.getName()+".handlerThreads", 32);
+
+    /**
+     * Number of connections that can be handled or waiting for a thread before we stop accepting new ones.
+     * @since TODO
+     */
+    public static int MAX_PENDING_CONNECTIONS = SystemProperties.getInteger(TcpSlaveAgentListener.class.getName()+".maxPendingConnections", 1000);
+
+    /**
+     * Time in milliseconds a client has to send the name of the protocol it wants after connecting.
+     * @since TODO
+     */
+    public static long PREAMBLE_TIMEOUT = SystemProperties.getInteger(TcpSlaveAgentListener.class.getName()+".preambleTimeout", 60000);
 }
 
 /*
@@ -70,14 +70,20 @@ import java.nio.charset.CharsetEncoder;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.NotLinkException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
@@ -383,21 +389,121 @@ public class Util {
      * @throws The first exception encountered.
      */
     private static void tryOnceDeleteContentsRecursive(File directory) throws IOException {
-        File[] directoryContents = directory.listFiles();
-        if(directoryContents==null)
-            return; // the directory didn't exist in the first place
-        IOException firstCaught = null;
-        for (File child : directoryContents) {
-            try {
-                tryOnceDeleteRecursive(child);
-            } catch (IOException justCaught) {
-                if( firstCaught==null) {
-                    firstCaught = justCaught;
+        Deletion deletion = new Deletion();
+        try {
+            DeleteContents task = new DeleteContents(directory, deletion);
+            task.compute();
+            if (task.firstCaught != null)
+                throw task.firstCaught;
+        } finally {
+            if (deletion.pool != null)
+                deletion.pool.shutdown();
+        }
+    }
+
+    /**
+     * State shared by the tasks of one attempt at deleting a tree.
+     */
+    private static final class Deletion {
+        /**
+         * Entries still to be deleted from the calling thread before going parallel.
+         */
+        private int inline = DELETION_THREADS > 1 ? PARALLEL_DELETION_THRESHOLD : Integer.MAX_VALUE;
+        /**
+         * Created once the tree turns out to be large, so that small trees cost no thread,
+         * and each large one has threads of its own rather than queueing behind others.
+         */
+        private ForkJoinPool pool;
+
+        ForkJoinPool pool() {
+            if (pool == null)
+                pool = new ForkJoinPool(DELETION_THREADS);
+            return pool;
+        }
+    }
+
+    /**
+     * Deletes the contents of a directory.
+     * Starts from the calling thread, and once {@link #PARALLEL_DELETION_THRESHOLD} entries were seen,
+     * deletes the remaining subdirectories in parallel.
+     * Each entry is looked at once, without following symbolic links.
+     */
+    private static final class DeleteContents extends RecursiveAction {
+        private final File directory;
+        private final Deletion deletion;
+        private IOException firstCaught;
+
+        DeleteContents(File directory, Deletion deletion) {
+            this.directory = directory;
+            this.deletion = deletion;
+        }
+
+        @Override
+        protected void compute() {
+            File[] directoryContents = directory.listFiles();
+            if(directoryContents==null)
+                return; // the directory didn't exist in the first place
+            List<DeleteContents> subdirectories = new ArrayList<DeleteContents>();
+            for (File child : directoryContents) {
+                try {
+                    if (isDirectoryNotSymlink(child)) {
+                        subdirectories.add(new DeleteContents(child, deletion));
+                    } else {
+                        tryOnceDeleteFile(child);
+                    }
+                } catch (NoSuchFileException justDeleted) {
+                    // fine
+                } catch (IOException justCaught) {
+                    caught(justCaught);
+                }
+            }
+            if (deletion.pool != null && getPool() == deletion.pool) {
+                invokeAll(subdirectories);
+            } else {
+                // only the calling thread gets here, so the budget needs no synchronization
+                deletion.inline -= directoryContents.length;
+                int i = 0;
+                while (i < subdirectories.size() && deletion.inline > 0)
+                    subdirectories.get(i++).compute();
+                if (i < subdirectories.size()) {
+                    final List<DeleteContents> rest = subdirectories.subList(i, subdirectories.size());
+                    deletion.pool().invoke(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            invokeAll(rest);
+                        }
+                    });
+                }
+            }
+            for (DeleteContents subdirectory : subdirectories) {
+                if (subdirectory.firstCaught != null) {
+                    caught(subdirectory.firstCaught);
+                    continue;
+                }
+                try {
+                    tryOnceDeleteFile(subdirectory.directory);
+                } catch (IOException justCaught) {
+                    caught(justCaught);
                 }
             }
         }
-        if( firstCaught!=null )
-            throw firstCaught;
+
+        private void caught(IOException justCaught) {
+            if (firstCaught == null)
+                firstCaught = justCaught;
+        }
+
+        private static boolean isDirectoryNotSymlink(File f) throws IOException {
+            Path path;
+            try {
+                path = f.toPath();
+            } catch (InvalidPathException e) {
+                return f.isDirectory() && !isSymlink(f);
+            }
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+        }
+
+        private static final long serialVersionUID = 1L;
     }
 
     /**
@@ -1691,4 +1797,21 @@ public class Util {
      */
     @Restricted(value = NoExternalUse.class)
     static boolean GC_AFTER_FAILED_DELETE = Boolean.getBoolean(Util.class.getName() + ".performGCOnFailedDelete");
+
+    /**
+     * Number of threads deleting the subdirectories of a large directory tree in parallel
+     * in {@link #deleteRecursive(File)} and {@link #deleteContentsRecursive(File)}.
+     * It defaults to the number of processors, up to 4, for each such deletion.
+     * 1 or less deletes everything from the calling thread.
+     */
+    @Restricted(value = NoExternalUse.class)
+    static int DELETION_THREADS = Integer.getInteger(Util.class.getName() + ".deletionThreads",
+            Math.min(4, Runtime.getRuntime().availableProcessors())).intValue();
+
+    /**
+     * Number of entries of a directory tree deleted from the calling thread before
+     * the rest is deleted with {@link #DELETION_THREADS} threads.
+     */
+    @Restricted(value = NoExternalUse.class)
+    static int PARALLEL_DELETION_THRESHOLD = Integer.getInteger(Util.class.getName() + ".parallelDeletionThreshold", 1000).intValue();
 }
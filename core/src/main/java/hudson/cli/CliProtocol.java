@@ -41,6 +41,15 @@ public class CliProtocol extends AgentProtocol {
         new Handler(nio.getHub(),socket).run();
     }
 
+    /**
+     * {@inheritDoc}
+     * This returns once the channel is established; the channel then carries on without the calling thread.
+     */
+    @Override
+    public boolean isHandshakeOnly() {
+        return true;
+    }
+
     protected static class Handler {
         protected final NioChannelHub hub;
         protected final Socket socket;
@@ -82,7 +91,8 @@ public class CliProtocol extends AgentProtocol {
                     .build(new BufferedInputStream(c.in), new BufferedOutputStream(c.out));
 
             channel.setProperty(CliEntryPoint.class.getName(),new CliManagerImpl(channel));
-            channel.join();
+            // the channel has its own reader thread, so return the connection handler thread for other clients
+            // rather than waiting for the session to end
         }
     }
 }
@@ -2,6 +2,7 @@ package hudson.cli;
 
 import hudson.Extension;
 import hudson.console.AnnotatedLargeText;
+import hudson.console.LogTail;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Item;
@@ -75,7 +76,14 @@ public class ConsoleCommand extends CLICommand {
                 AnnotatedLargeText logText;
                 do {
                     logText = run.getLogText();
+                    long last = pos;
                     pos = logText.writeLogTo(pos, w);
+                    LogTail tail = run.getLogTail();
+                    if (pos==last && tail!=null) {
+                        // nothing new, so wait for the build to write more rather than spinning
+                        w.flush();
+                        tail.await(tail.length(), 1000);
+                    }
                 } while (!logText.isComplete());
             } else {
                 InputStream logInputStream = run.getLogInputStream();
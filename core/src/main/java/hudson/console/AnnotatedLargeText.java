@@ -37,6 +37,7 @@ import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.framework.io.ByteBuffer;
 import org.kohsuke.stapler.framework.io.LargeText;
 
+import javax.annotation.CheckForNull;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
@@ -76,14 +77,31 @@ public class AnnotatedLargeText<T> extends LargeText {
      */
     private T context;
 
+    /**
+     * In-memory tail of the file while it is being written, if available.
+     */
+    private final LogTail tail;
+
     public AnnotatedLargeText(File file, Charset charset, boolean completed, T context) {
+        this(file, charset, completed, context, null);
+    }
+
+    /**
+     * @param tail
+     *      Recent contents of the file, used to serve reads near the end of a file still being written
+     *      without going to the disk.
+     * @since 2.6
+     */
+    public AnnotatedLargeText(File file, Charset charset, boolean completed, T context, @CheckForNull LogTail tail) {
         super(file, charset, completed, true);
         this.context = context;
+        this.tail = completed ? null : tail;
     }
 
     public AnnotatedLargeText(ByteBuffer memory, Charset charset, boolean completed, T context) {
         super(memory, charset, completed);
         this.context = context;
+        this.tail = null;
     }
 
     public void doProgressiveHtml(StaplerRequest req, StaplerResponse rsp) throws IOException {
@@ -151,7 +169,7 @@ public class AnnotatedLargeText<T> extends LargeText {
      */
     @Override
     public long writeLogTo(long start, OutputStream out) throws IOException {
-        return super.writeLogTo(start, new PlainTextConsoleOutputStream(out));
+        return writeFromTailOrFile(start, new PlainTextConsoleOutputStream(out));
     }
 
     /**
@@ -159,13 +177,37 @@ public class AnnotatedLargeText<T> extends LargeText {
      * @since 1.577
      */
     public long writeRawLogTo(long start, OutputStream out) throws IOException {
+        return writeFromTailOrFile(start, out);
+    }
+
+    /**
+     * Like {@link LargeText#writeLogTo(long, OutputStream)}, but copies from the {@link LogTail}
+     * when the requested range is still in memory.
+     * As with the file, only complete lines are written while the log is still being written.
+     */
+    private long writeFromTailOrFile(long start, OutputStream out) throws IOException {
+        if (tail!=null && !tail.isClosed()) {
+            long end = tail.length();
+            if (start>=tail.getStart() && end-start<=Integer.MAX_VALUE) {
+                byte[] buf = new byte[(int)Math.max(0, end-start)];
+                int n = tail.read(start, buf, 0, buf.length);
+                if (n>=0) {
+                    int eol = n;
+                    while (eol>0 && buf[eol-1]!='\n')
+                        eol--;
+                    out.write(buf, 0, eol);
+                    out.flush();
+                    return start+eol;
+                }
+            }
+        }
         return super.writeLogTo(start, out);
     }
 
     public long writeHtmlTo(long start, Writer w) throws IOException {
         ConsoleAnnotationOutputStream caw = new ConsoleAnnotationOutputStream(
                 w, createAnnotator(Stapler.getCurrentRequest()), context, charset);
-        long r = super.writeLogTo(start,caw);
+        long r = writeFromTailOrFile(start,caw);
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Cipher sym = PASSING_ANNOTATOR.encrypt();
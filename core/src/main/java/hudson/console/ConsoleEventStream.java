@@ -0,0 +1,339 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.IOUtils;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes the annotated console output of a build to the browser as
+ * <a href="https://www.w3.org/TR/eventsource/">server-sent events</a>.
+ *
+ * <p>
+ * Unlike {@link AnnotatedLargeText#doProgressiveHtml}, the browser doesn't poll. The request is put
+ * in asynchronous mode so that it doesn't hold a request thread, and a task on a small pool of our own
+ * picks up what was appended since the last tick. While the build is running that comes from the
+ * {@link LogTail} kept in memory by the build, so the log file is only opened for older parts of the log,
+ * and then kept open for the following ticks.
+ * The {@link ConsoleAnnotator} state stays on the server for the lifetime of the stream.
+ *
+ * <p>
+ * The response is written with non-blocking servlet I/O. While the browser doesn't keep up,
+ * ticks don't read anything more, so a slow client neither holds a thread nor piles up output in memory.
+ *
+ * <p>
+ * Each event carries the HTML of one or more complete lines, with the offset in the log right after
+ * them as the event ID, so that a browser reconnecting with {@code Last-Event-ID} resumes at a line boundary.
+ * An {@code end} event is sent once the whole log has been sent.
+ *
+ * @since 2.6
+ */
+@Restricted(NoExternalUse.class)
+public final class ConsoleEventStream implements Runnable {
+    private final Run<?,?> run;
+    private final AsyncContext ctx;
+    private final ServletOutputStream out;
+    private final Authentication auth;
+    private final ConsoleAnnotationOutputStream<?> annotator;
+    private final StringWriter html = new StringWriter();
+    private final byte[] buf = new byte[8192];
+    /**
+     * Offset of the next byte to read, and offset right after the last complete line read so far.
+     */
+    private long offset, lineOffset;
+    /**
+     * The log file as far as we read it, if we had to.
+     */
+    private InputStream in;
+    private long inOffset;
+    /**
+     * Output the browser isn't ready to receive yet.
+     */
+    private byte[] pending;
+    private int idleTicks;
+    /**
+     * Whether the {@code end} event has been queued, and whether we're done altogether.
+     */
+    private boolean ended, done;
+    private ScheduledFuture<?> future;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ConsoleEventStream(Run<?,?> run, AsyncContext ctx, ServletOutputStream out, long offset) {
+        this.run = run;
+        this.ctx = ctx;
+        this.out = out;
+        this.offset = this.lineOffset = offset;
+        this.auth = Jenkins.getAuthentication();
+        this.annotator = new ConsoleAnnotationOutputStream(html, ConsoleAnnotator.initial(run.getClass()), run, run.getCharset());
+    }
+
+    /**
+     * Starts streaming the log of the given build from the given offset.
+     */
+    public static void start(Run<?,?> run, long offset, StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("text/event-stream;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.setHeader("X-Accel-Buffering", "no");   // nginx
+
+        AsyncContext ctx = req.startAsync();
+        ctx.setTimeout(0);
+        final ConsoleEventStream s = new ConsoleEventStream(run, ctx, rsp.getOutputStream(), Math.max(0, offset));
+        s.out.setWriteListener(new WriteListener() {
+            public void onWritePossible() {
+                // the next tick will carry on
+            }
+
+            public void onError(Throwable t) {
+                LOGGER.log(Level.FINE, "Stopped streaming the console of " + s.run, t);
+                synchronized (s) {
+                    s.finish();
+                }
+            }
+        });
+        ScheduledFuture<?> f = executor().scheduleWithFixedDelay(s, 0, INTERVAL, TimeUnit.MILLISECONDS);
+        synchronized (s) {
+            if (s.done)
+                f.cancel(false);
+            else
+                s.future = f;
+        }
+    }
+
+    public synchronized void run() {
+        if (done)   return;
+        SecurityContext old = ACL.impersonate(auth);
+        try {
+            if (!drain())
+                return; // the browser is not keeping up, so don't read any further for now
+            if (ended) {
+                finish();
+                return;
+            }
+
+            // check before reading, so that we don't miss the very last bytes
+            boolean complete = !run.isLogUpdated();
+            LogTail tail = run.getLogTail();
+
+            long sent = 0;
+            while (sent<MAX_PER_TICK) {
+                int n = tail!=null ? tail.read(offset, buf, 0, buf.length) : -1;
+                if (n<0)
+                    n = readFromFile();
+                if (n<=0)
+                    break;
+                annotator.write(buf, 0, n);
+                for (int i = n-1; i >= 0; i--) {
+                    if (buf[i]=='\n') {
+                        lineOffset = offset+i+1;
+                        break;
+                    }
+                }
+                offset += n;
+                sent += n;
+            }
+
+            boolean end = complete && sent<MAX_PER_TICK;
+            if (end) {
+                annotator.forceEol();
+                lineOffset = offset;
+            }
+
+            StringBuffer b = html.getBuffer();
+            if (b.length()>0) {
+                send(null, b.toString());
+                b.setLength(0);
+                idleTicks = 0;
+            } else if (++idleTicks*INTERVAL>=KEEP_ALIVE) {
+                // comment line, lets us notice browsers that went away
+                write(":\n\n");
+                idleTicks = 0;
+            }
+
+            if (end) {
+                send("end", "");
+                ended = true;
+                if (pending==null)
+                    finish();
+                // otherwise the next tick completes the response once everything went out
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Stopped streaming the console of " + run, e);
+            finish();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to stream the console of " + run, e);
+            finish();
+        } finally {
+            SecurityContextHolder.setContext(old);
+        }
+    }
+
+    /**
+     * Reads from the log file at the current offset, for the part of the log that isn't in memory.
+     * The file stays open across ticks, which matters for compressed logs that can only be skipped by inflating them.
+     */
+    private int readFromFile() throws IOException {
+        if (in!=null && inOffset>offset) {
+            in.close();
+            in = null;
+        }
+        if (in==null) {
+            in = run.getLogInputStream();
+            inOffset = 0;
+        }
+        try {
+            IOUtils.skip(in, offset-inOffset);
+            inOffset = offset;
+            int n = Math.max(0, in.read(buf));
+            inOffset += n;
+            return n;
+        } catch (EOFException e) {
+            // not written yet; start over next time, as we don't know how far we got
+            in.close();
+            in = null;
+            return 0;
+        }
+    }
+
+    private void send(String event, String data) throws IOException {
+        StringBuilder b = new StringBuilder();
+        if (event!=null)
+            b.append("event: ").append(event).append('\n');
+        b.append("id: ").append(lineOffset).append('\n');
+        for (String line : data.split("\r\n|\r|\n", -1))
+            b.append("data: ").append(line).append('\n');
+        b.append('\n');
+        write(b.toString());
+    }
+
+    /**
+     * Queues output for the browser, and sends it if it's ready to receive.
+     */
+    private void write(String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        if (pending==null) {
+            pending = bytes;
+        } else {
+            byte[] all = new byte[pending.length+bytes.length];
+            System.arraycopy(pending, 0, all, 0, pending.length);
+            System.arraycopy(bytes, 0, all, pending.length, bytes.length);
+            pending = all;
+        }
+        drain();
+    }
+
+    /**
+     * Sends the queued output if the browser is ready to receive it, without blocking.
+     *
+     * @return true if nothing is left queued.
+     */
+    private boolean drain() throws IOException {
+        if (pending==null)
+            return true;
+        if (!out.isReady())
+            return false;
+        out.write(pending);
+        pending = null;
+        if (out.isReady())
+            out.flush();
+        return true;
+    }
+
+    private void finish() {
+        done = true;
+        if (future!=null)
+            future.cancel(false);
+        if (in!=null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            in = null;
+        }
+        try {
+            ctx.complete();
+        } catch (IllegalStateException e) {
+            // already completed
+        }
+    }
+
+    private static synchronized ScheduledExecutorService executor() {
+        if (executor==null) {
+            executor = new ScheduledThreadPoolExecutor(THREADS,
+                    new NamingThreadFactory(new DaemonThreadFactory(), ConsoleEventStream.class.getSimpleName()));
+        }
+        return executor;
+    }
+
+    private static ScheduledExecutorService executor;
+
+    /**
+     * How often, in milliseconds, new output is pushed to the browser.
+     */
+    public static int INTERVAL = SystemProperties.getInteger(ConsoleEventStream.class.getName()+".interval", 250);
+
+    /**
+     * Number of threads reading logs for, and writing to, all the streams.
+     * Writes don't block, so these only wait for the disk.
+     */
+    public static int THREADS = SystemProperties.getInteger(ConsoleEventStream.class.getName()+".threads", 2);
+
+    /**
+     * Milliseconds of silence after which a keep-alive comment is sent.
+     */
+    private static final int KEEP_ALIVE = 15000;
+
+    /**
+     * Upper bound of bytes processed per tick, so that one viewer catching up on a huge log can't hog a thread.
+     */
+    private static final int MAX_PER_TICK = 1024*1024;
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleEventStream.class.getName());
+}
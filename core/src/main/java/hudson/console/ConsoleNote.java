@@ -45,10 +45,13 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import com.jcraft.jzlib.GZIPInputStream;
 import com.jcraft.jzlib.GZIPOutputStream;
 
@@ -169,26 +172,45 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
     }
 
     private ByteArrayOutputStream encodeToBytes() throws IOException {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(buf));
+        ByteArrayOutputStream ser = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(ser);
         try {
             oos.writeObject(this);
         } finally {
             oos.close();
         }
 
-        ByteArrayOutputStream buf2 = new ByteArrayOutputStream();
+        // the same note (think hyperlinks to the same job) tends to be written over and over,
+        // so reuse the compressed and encoded form instead of redoing the work.
+        ByteBuffer key = ByteBuffer.wrap(ser.toByteArray());
+        byte[] encoded = ENCODED.get(key);
+        if (encoded==null) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            GZIPOutputStream gz = new GZIPOutputStream(buf);
+            try {
+                ser.writeTo(gz);
+            } finally {
+                gz.close();
+            }
 
-        DataOutputStream dos = new DataOutputStream(new Base64OutputStream(buf2,true,-1,null));
-        try {
-            buf2.write(PREAMBLE);
-            dos.writeInt(buf.size());
-            buf.writeTo(dos);
-        } finally {
-            dos.close();
+            ByteArrayOutputStream buf2 = new ByteArrayOutputStream();
+
+            DataOutputStream dos = new DataOutputStream(new Base64OutputStream(buf2,true,-1,null));
+            try {
+                buf2.write(PREAMBLE);
+                dos.writeInt(buf.size());
+                buf.writeTo(dos);
+            } finally {
+                dos.close();
+            }
+            buf2.write(POSTAMBLE);
+            encoded = buf2.toByteArray();
+            ENCODED.put(key, encoded);
         }
-        buf2.write(POSTAMBLE);
-        return buf2;
+
+        ByteArrayOutputStream r = new ByteArrayOutputStream(encoded.length);
+        r.write(encoded);
+        return r;
     }
 
     /**
@@ -223,8 +245,23 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
             if (!Arrays.equals(postamble,POSTAMBLE))
                 return null;    // not a valid postamble
 
+            // only the inflation is shared; every caller still gets its own instance of the note
+            ByteBuffer key = ByteBuffer.wrap(buf);
+            byte[] ser = DECODED.get(key);
+            if (ser==null) {
+                ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+                GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(buf));
+                try {
+                    IOUtils.copy(gz, inflated);
+                } finally {
+                    gz.close();
+                }
+                ser = inflated.toByteArray();
+                DECODED.put(key, ser);
+            }
+
             ObjectInputStream ois = new ObjectInputStreamEx(
-                    new GZIPInputStream(new ByteArrayInputStream(buf)), Jenkins.getInstance().pluginManager.uberClassLoader);
+                    new ByteArrayInputStream(ser), Jenkins.getInstance().pluginManager.uberClassLoader);
             try {
                 return (ConsoleNote) ois.readObject();
             } finally {
@@ -256,6 +293,46 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Small LRU dictionary from the content of a note to its derived form.
+     */
+    static final class Dictionary {
+        /**
+         * Number of lookups that found an entry, for tests.
+         */
+        int hits;
+        private final Map<ByteBuffer,byte[]> entries = new LinkedHashMap<ByteBuffer,byte[]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer,byte[]> eldest) {
+                return size()>DICTIONARY_SIZE;
+            }
+        };
+
+        synchronized byte[] get(ByteBuffer key) {
+            byte[] value = entries.get(key);
+            if (value!=null)
+                hits++;
+            return value;
+        }
+
+        synchronized void put(ByteBuffer key, byte[] value) {
+            if (key.remaining()<=MAX_DICTIONARY_ENTRY)
+                entries.put(key, value);
+        }
+    }
+
+    /**
+     * Serialized form of a note to its encoded form.
+     */
+    static final Dictionary ENCODED = new Dictionary();
+    /**
+     * Compressed form of a note to its serialized form.
+     */
+    static final Dictionary DECODED = new Dictionary();
+
+    private static final int DICTIONARY_SIZE = 256;
+    static final int MAX_DICTIONARY_ENTRY = 4096;
+
     public static final String PREAMBLE_STR = "\u001B[8mha:";
     public static final String POSTAMBLE_STR = "\u001B[0m";
 
@@ -69,9 +69,18 @@ public abstract class LineTransformationOutputStream extends OutputStream {
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
         int end = off+len;
+        int start = off;
 
-        for( int i=off; i<end; i++ )
-            write(b[i]);
+        // copy whole lines at once rather than going through write(int) for every byte
+        for( int i=off; i<end; i++ ) {
+            if (b[i]==LF) {
+                buf.write(b,start,i+1-start);
+                eol();
+                start = i+1;
+            }
+        }
+        if (start<end)
+            buf.write(b,start,end-start);
     }
 
     @Override
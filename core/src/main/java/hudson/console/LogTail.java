@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import jenkins.util.SystemProperties;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps the most recent bytes of a log that is being written, so that readers following
+ * the end of the log can be served from memory.
+ *
+ * <p>
+ * Offsets are absolute positions in the log, as if the whole log had been kept.
+ * Only the last {@link #CAPACITY} bytes are actually retained; readers asking for anything
+ * older need to go to the log file.
+ *
+ * <p>
+ * Nothing is retained until a reader first asks for {@link #getStart} or {@link #read},
+ * so that builds whose log nobody follows only pay for counting bytes;
+ * from then on the tail fills up as the log grows.
+ *
+ * @since 2.6
+ */
+public final class LogTail {
+    private final int capacity;
+    /**
+     * Allocated by {@link #retain} once someone reads this log.
+     */
+    private byte[] ring;
+    /**
+     * Length of the log when {@link #ring} was allocated, as nothing before that is in it.
+     */
+    private long retainedFrom;
+    /**
+     * Number of bytes appended so far.
+     */
+    private long length;
+    private boolean closed;
+
+    public LogTail() {
+        this(CAPACITY);
+    }
+
+    public LogTail(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Wraps the stream that writes the log, so that everything written there is also recorded here.
+     * The returned stream closes this tail when closed.
+     */
+    public OutputStream decorate(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                append(new byte[] {(byte)b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // the log file gets it first, so that we are never ahead of it
+                out.write(b, off, len);
+                append(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    LogTail.this.close();
+                }
+            }
+        };
+    }
+
+    public synchronized void append(byte[] b, int off, int len) {
+        if (closed)     return;
+        if (ring == null) {
+            length += len;
+            notifyAll();
+            return;
+        }
+        int cap = ring.length;
+        // only the last 'cap' bytes can survive
+        int skip = Math.max(0, len-cap);
+        long abs = length+skip;
+        off += skip;
+        int n = len-skip;
+        while (n>0) {
+            int pos = (int)(abs%cap);
+            int chunk = Math.min(n, cap-pos);
+            System.arraycopy(b, off, ring, pos, chunk);
+            abs += chunk;
+            off += chunk;
+            n -= chunk;
+        }
+        length += len;
+        notifyAll();
+    }
+
+    /**
+     * Total number of bytes written to the log so far.
+     */
+    public synchronized long length() {
+        return length;
+    }
+
+    /**
+     * Offset of the oldest byte still in memory.
+     */
+    public synchronized long getStart() {
+        retain();
+        if (ring == null)
+            return length;
+        return Math.max(retainedFrom, length-ring.length);
+    }
+
+    /**
+     * Starts keeping the tail once someone follows this log; what was written before stays in the file only.
+     */
+    private void retain() {
+        if (ring == null && !closed) {
+            ring = new byte[capacity];
+            retainedFrom = length;
+        }
+    }
+
+    /**
+     * Copies bytes from the given offset.
+     *
+     * @return
+     *      number of bytes copied, which is 0 if there's nothing new yet,
+     *      or -1 if the offset is no longer in memory and needs to be read from the file.
+     */
+    public synchronized int read(long offset, byte[] buf, int off, int len) {
+        if (offset<getStart())
+            return -1;
+        long avail = length-offset;
+        if (avail<=0)
+            return 0;
+        int n = (int)Math.min(len, avail);
+        int cap = ring.length;
+        int pos = (int)(offset%cap);
+        int first = Math.min(n, cap-pos);
+        System.arraycopy(ring, pos, buf, off, first);
+        System.arraycopy(ring, 0, buf, off+first, n-first);
+        return n;
+    }
+
+    /**
+     * Waits until the log grows beyond the given offset, the log is closed, or the timeout expires.
+     */
+    public synchronized void await(long offset, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis()+timeoutMillis;
+        long remaining;
+        while (length<=offset && !closed && (remaining=end-System.currentTimeMillis())>0)
+            wait(remaining);
+    }
+
+    /**
+     * Marks the end of the log.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Number of bytes kept in memory for each running build.
+     */
+    public static int CAPACITY = SystemProperties.getInteger(LogTail.class.getName()+".capacity", 256*1024);
+}
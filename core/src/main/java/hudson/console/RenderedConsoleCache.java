@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import hudson.PluginWrapper;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.util.AtomicFileWriter;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the HTML rendering of completed console logs on disk, so that popular builds
+ * don't run every {@link ConsoleAnnotator} over the log again for every viewer.
+ *
+ * <p>
+ * Renderings are stored in the <tt>console-html</tt> directory of the build, one file per start offset,
+ * and only for logs up to {@link #MAX_SIZE} bytes. At most {@link #MAX_RENDERINGS} of them are kept per build.
+ * The file name includes a digest of the installed plugins and the things that the markup of core annotators
+ * depends on, which is only where Jenkins is served from (see {@link HyperlinkNote}),
+ * so installing or updating a plugin that contributes annotations simply makes older renderings unused.
+ * Everyone looking at the same build shares the same rendering.
+ *
+ * <p>
+ * Annotators that look at anything else, such as who is viewing the log, their locale or cookies,
+ * would be served a rendering made for another viewer, which is why the cache is off unless {@link #ENABLED} is set.
+ *
+ * @since 2.6
+ */
+@Restricted(NoExternalUse.class)
+public final class RenderedConsoleCache {
+    private RenderedConsoleCache() {}
+
+    /**
+     * Writes the annotated log of a build from the given offset, serving it from the cache when possible.
+     *
+     * @return the same value as {@link AnnotatedLargeText#writeHtmlTo(long, Writer)}.
+     */
+    public static long writeHtmlTo(Run<?,?> run, AnnotatedLargeText<?> text, long offset, Writer w) throws IOException {
+        if (!ENABLED || !text.isComplete() || offset<0 || text.length()-offset>MAX_SIZE)
+            return text.writeHtmlTo(offset, w);
+
+        File dir = new File(run.getRootDir(), "console-html");
+        File cache = new File(dir, offset + "-" + key(text.length()) + ".html");
+
+        if (cache.exists()) {
+            Reader r = new InputStreamReader(new FileInputStream(cache), "UTF-8");
+            try {
+                Util.copyStream(r, w);
+            } finally {
+                r.close();
+            }
+            return text.length();
+        }
+
+        // render normally, keeping a copy as we go
+        AtomicFileWriter copy;
+        try {
+            copy = new AtomicFileWriter(cache, "UTF-8", AtomicFileWriter.Durability.RELAXED);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot cache the rendering of " + run, e);
+            return text.writeHtmlTo(offset, w);
+        }
+        try {
+            long r = text.writeHtmlTo(offset, new TeeWriter(w, copy));
+            copy.commit();
+            prune(dir, cache);
+            return r;
+        } finally {
+            copy.abort();
+        }
+    }
+
+    /**
+     * Captures everything that the rendering depends on besides the log itself.
+     */
+    private static String key(long length) {
+        StringBuilder b = new StringBuilder().append(Jenkins.VERSION).append(';').append(length).append(';');
+        // links are relative to the context path when serving a request, absolute otherwise
+        StaplerRequest req = Stapler.getCurrentRequest();
+        if (req != null)
+            b.append(req.getContextPath()).append(';');
+        Jenkins j = Jenkins.getInstance();
+        if (j != null) {
+            b.append(j.getRootUrl()).append(';');
+            for (PluginWrapper p : j.getPluginManager().getPlugins()) {
+                if (p.isActive())
+                    b.append(p.getShortName()).append(':').append(p.getVersion()).append(';');
+            }
+        }
+        return Util.getDigestOf(b.toString());
+    }
+
+    /**
+     * Keeps the {@link #MAX_RENDERINGS} most recently written renderings of a build, including the given one.
+     */
+    private static void prune(File dir, File keep) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= MAX_RENDERINGS)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                // newest first
+                long m1 = f1.lastModified(), m2 = f2.lastModified();
+                return m1 < m2 ? 1 : m1 == m2 ? 0 : -1;
+            }
+        });
+        int kept = 1;
+        for (File f : files) {
+            if (f.equals(keep))
+                continue;
+            if (kept < MAX_RENDERINGS)
+                kept++;
+            else
+                f.delete();
+        }
+    }
+
+    /**
+     * Writes to two writers. Flushing and closing only affect the first one, as the copy is committed separately.
+     */
+    private static final class TeeWriter extends Writer {
+        private final Writer primary, copy;
+
+        TeeWriter(Writer primary, Writer copy) {
+            this.primary = primary;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            primary.write(c);
+            copy.write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            primary.write(cbuf, off, len);
+            copy.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            primary.write(str, off, len);
+            copy.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            primary.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            primary.close();
+        }
+    }
+
+    /**
+     * Whether to cache renderings at all. Off by default, see the class documentation.
+     */
+    public static boolean ENABLED = SystemProperties.getBoolean(RenderedConsoleCache.class.getName()+".enabled");
+
+    /**
+     * Renderings of logs larger than this many bytes are not cached, to keep the disk usage in check.
+     */
+    public static int MAX_SIZE = SystemProperties.getInteger(RenderedConsoleCache.class.getName()+".maxSize", 10*1024*1024);
+
+    /**
+     * How many renderings are kept per build, one per start offset.
+     */
+    public static int MAX_RENDERINGS = SystemProperties.getInteger(RenderedConsoleCache.class.getName()+".maxRenderings", 4);
+
+    private static final Logger LOGGER = Logger.getLogger(RenderedConsoleCache.class.getName());
+}
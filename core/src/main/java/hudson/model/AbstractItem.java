@@ -44,6 +44,7 @@ import hudson.util.Secret;
 import jenkins.model.DirectlyModifiableTopLevelItemGroup;
 import jenkins.model.Jenkins;
 import jenkins.security.NotReallyRoleSensitiveCallable;
+import jenkins.util.io.DeferredSaver;
 import org.acegisecurity.Authentication;
 import jenkins.util.xml.XMLUtils;
 
@@ -516,7 +517,7 @@ public abstract class AbstractItem extends Actionable implements Item, HttpDelet
      * Save the settings to a file.
      */
     public synchronized void save() throws IOException {
-        if(BulkChange.contains(this))   return;
+        if(BulkChange.contains(this) || DeferredSaver.defer(this))   return;
         getConfigFile().write(this);
         SaveableListener.fireOnChange(this, getConfigFile());
     }
@@ -586,6 +587,7 @@ public abstract class AbstractItem extends Actionable implements Item, HttpDelet
     public void delete() throws IOException, InterruptedException {
         checkPermission(DELETE);
         synchronized (this) { // could just make performDelete synchronized but overriders might not honor that
+            DeferredSaver.cancel(this);
             performDelete();
         } // JENKINS-19446: leave synch block, but JENKINS-22001: still notify synchronously
         getParent().onDeleted(AbstractItem.this);
@@ -631,6 +633,7 @@ public abstract class AbstractItem extends Actionable implements Item, HttpDelet
     @Restricted(NoExternalUse.class)
     public void writeConfigDotXml(OutputStream os) throws IOException {
         checkPermission(EXTENDED_READ);
+        DeferredSaver.flush(this);
         XmlFile configFile = getConfigFile();
         if (hasPermission(CONFIGURE)) {
             IOUtils.copy(configFile.getFile(), os);
@@ -39,6 +39,7 @@ import hudson.views.ListViewColumn;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.GlobalConfigurationCategory;
 import jenkins.model.Jenkins;
+import jenkins.util.io.DeferredSaver;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.*;
@@ -859,7 +860,7 @@ public abstract class Descriptor<T extends Describable<T>> implements Saveable {
      * Saves the configuration info to the disk.
      */
     public synchronized void save() {
-        if(BulkChange.contains(this))   return;
+        if(BulkChange.contains(this) || DeferredSaver.defer(this))   return;
         try {
             getConfigFile().write(this);
             SaveableListener.fireOnChange(this, getConfigFile());
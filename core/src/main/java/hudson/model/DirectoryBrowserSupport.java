@@ -25,20 +25,31 @@ package hudson.model;
 
 import hudson.FilePath;
 import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.io.ZipStreamWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 import jenkins.model.Jenkins;
@@ -46,8 +57,6 @@ import jenkins.security.MasterToSlaveCallable;
 import jenkins.util.SystemProperties;
 import jenkins.util.VirtualFile;
 import org.apache.commons.io.IOUtils;
-import org.apache.tools.zip.ZipEntry;
-import org.apache.tools.zip.ZipOutputStream;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.HttpResponse;
@@ -255,8 +264,21 @@ public final class DirectoryBrowserSupport implements HttpResponse {
                 glob = patternScan(baseFile, rest, createBackRef(restSize));
             } else
             if(serveDirIndex) {
-                // serve directory index
-                glob = baseFile.run(new BuildChildPaths(baseFile, req.getLocale()));
+                // serve directory index, a page at a time for huge directories
+                int start = 0;
+                try {
+                    start = Math.max(0, Integer.parseInt(Util.fixNull(req.getParameter("start"))));
+                } catch (NumberFormatException e) {
+                    // first page then
+                }
+                int limit = PAGE_SIZE > 0 ? PAGE_SIZE : Integer.MAX_VALUE;
+                glob = baseFile.run(new BuildChildPaths(baseFile, req.getLocale(), start, limit));
+                if (glob.size() > limit) {
+                    glob = glob.subList(0, limit);
+                    req.setAttribute("nextStart", start + limit);
+                }
+                if (start > 0)
+                    req.setAttribute("previousStart", Math.max(0, start - limit));
             }
 
             if(glob!=null) {
@@ -304,13 +326,22 @@ public final class DirectoryBrowserSupport implements HttpResponse {
         if(LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Serving "+baseFile+" with lastModified=" + lastModified + ", length=" + length);
 
-        InputStream in = baseFile.open();
+        // the same path, timestamp and size is taken to mean the same content
+        String etag = '"' + Util.getDigestOf(baseFile.toURI() + ":" + lastModified + ":" + length) + '"';
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Accept-Ranges", "bytes");
+        if (isNotModified(req, etag, lastModified)) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String fileName;
         if (view) {
             // for binary files, provide the file name for download
             rsp.setHeader("Content-Disposition", "inline; filename=" + baseFile.getName());
 
             // pseudo file name to let the Stapler set text/plain
-            rsp.serveFile(req, in, lastModified, -1, length, "plain.txt");
+            fileName = "plain.txt";
         } else {
             String csp = SystemProperties.getString(DirectoryBrowserSupport.class.getName() + ".CSP", DEFAULT_CSP_VALUE);
             if (!csp.trim().equals("")) {
@@ -319,10 +350,114 @@ public final class DirectoryBrowserSupport implements HttpResponse {
                     rsp.setHeader(header, csp);
                 }
             }
-            rsp.serveFile(req, in, lastModified, -1, length, baseFile.getName() );
+            fileName = baseFile.getName();
+        }
+
+        long[] range = parseRange(req, etag, lastModified, length);
+        if (range == UNSATISFIABLE_RANGE) {
+            rsp.setHeader("Content-Range", "bytes */" + length);
+            rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        InputStream in = baseFile.open();
+        if (range != null) {
+            try {
+                long count = range[1] - range[0] + 1;
+                rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                rsp.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+                rsp.setHeader("Content-Length", Long.toString(count));
+                if (lastModified > 0)
+                    rsp.setDateHeader("Last-Modified", lastModified);
+                String type = req.getServletContext().getMimeType(fileName);
+                rsp.setContentType(type != null ? type : "application/octet-stream");
+                IOUtils.copyLarge(in, rsp.getOutputStream(), range[0], count);
+            } finally {
+                in.close();
+            }
+            return;
+        }
+        rsp.serveFile(req, in, lastModified, -1, length, fileName);
+    }
+
+    /**
+     * Checks {@code If-None-Match}, or failing that {@code If-Modified-Since}.
+     */
+    private static boolean isNotModified(StaplerRequest req, String etag, long lastModified) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag))
+                    return true;
+            }
+            return false;
+        }
+        long since = getDateHeader(req, "If-Modified-Since");
+        // HTTP dates have a resolution of a second
+        return since >= 0 && lastModified > 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * Parses a {@code Range} header with a single byte range, which is what download tools use to resume.
+     * Requests for several ranges get the whole file, as HTTP allows.
+     *
+     * @return the first and last byte to send, null to send the whole file, or {@link #UNSATISFIABLE_RANGE}
+     */
+    private static long[] parseRange(StaplerRequest req, String etag, long lastModified, long length) {
+        String range = req.getHeader("Range");
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0 || length <= 0)
+            return null;
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange != null) {
+            // the range only makes sense if the client still has the same version
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if (!ifRange.equals(etag))
+                    return null;
+            } else {
+                long date = getDateHeader(req, "If-Range");
+                if (date < 0 || lastModified <= 0 || lastModified / 1000 > date / 1000)
+                    return null;
+            }
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.length() == 0) {
+                // suffix range: the last N bytes
+                if (last.length() == 0)
+                    return null;
+                long n = Long.parseLong(last);
+                if (n <= 0)
+                    return UNSATISFIABLE_RANGE;
+                return new long[] {Math.max(0, length - n), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.length() == 0 ? length - 1 : Long.parseLong(last);
+            if (start < 0 || end < start)
+                return null;    // syntactically invalid, so ignored
+            if (start >= length)
+                return UNSATISFIABLE_RANGE;
+            return new long[] {start, Math.min(end, length - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long getDateHeader(StaplerRequest req, String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;  // malformed
         }
     }
 
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
     private String getPath(StaplerRequest req) {
         String path = req.getRestOfPath();
         if(path.length()==0)
@@ -356,35 +491,64 @@ public final class DirectoryBrowserSupport implements HttpResponse {
     }
 
     private static void zip(OutputStream outputStream, VirtualFile dir, String glob) throws IOException {
-        ZipOutputStream zos = new ZipOutputStream(outputStream);
-        zos.setEncoding(System.getProperty("file.encoding")); // TODO JENKINS-20663 make this overridable via query parameter
-        for (String n : dir.list(glob.length() == 0 ? "**" : glob)) {
-            String relativePath;
-            if (glob.length() == 0) {
-                // JENKINS-19947: traditional behavior is to prepend the directory name
-                relativePath = dir.getName() + '/' + n;
-            } else {
-                relativePath = n;
-            }
-            // In ZIP archives "All slashes MUST be forward slashes" (http://pkware.com/documents/casestudies/APPNOTE.TXT)
-            // TODO On Linux file names can contain backslashes which should not treated as file separators.
-            //      Unfortunately, only the file separator char of the master is known (File.separatorChar)
-            //      but not the file separator char of the (maybe remote) "dir".
-            ZipEntry e = new ZipEntry(relativePath.replace('\\', '/'));
-            VirtualFile f = dir.child(n);
-            e.setTime(f.lastModified());
-            zos.putNextEntry(e);
-            InputStream in = f.open();
-            try {
-                Util.copyStream(in, zos);
-            } finally {
-                IOUtils.closeQuietly(in);
+        // TODO JENKINS-20663 make the encoding overridable via query parameter
+        ZipStreamWriter zos = new ZipStreamWriter(outputStream, Charset.defaultCharset(), ZIP_COMPRESSION_LEVEL);
+        try {
+            for (String n : dir.list(glob.length() == 0 ? "**" : glob)) {
+                String relativePath;
+                if (glob.length() == 0) {
+                    // JENKINS-19947: traditional behavior is to prepend the directory name
+                    relativePath = dir.getName() + '/' + n;
+                } else {
+                    relativePath = n;
+                }
+                // In ZIP archives "All slashes MUST be forward slashes" (http://pkware.com/documents/casestudies/APPNOTE.TXT)
+                // TODO On Linux file names can contain backslashes which should not treated as file separators.
+                //      Unfortunately, only the file separator char of the master is known (File.separatorChar)
+                //      but not the file separator char of the (maybe remote) "dir".
+                String name = relativePath.replace('\\', '/');
+                VirtualFile f = dir.child(n);
+                long time = f.lastModified();
+                long length = f.length();
+                InputStream in = f.open();
+                try {
+                    if (isStored(name)) {
+                        // already compressed, so just copy it
+                        zos.writeUncompressed(name, time, length, in);
+                    } else {
+                        zos.writeDeflated(name, time, length, in, length >= PARALLEL_DEFLATE_THRESHOLD ? deflaters() : null);
+                    }
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
             }
-            zos.closeEntry();
+        } catch (InterruptedException x) {
+            throw (IOException) new InterruptedIOException().initCause(x);
         }
         zos.close();
+        outputStream.close();
+    }
+
+    /**
+     * Whether a file should go into a zip without compression.
+     */
+    private static boolean isStored(String name) {
+        if (ZIP_COMPRESSION_LEVEL == Deflater.NO_COMPRESSION)
+            return true;
+        int i = name.lastIndexOf('.');
+        return i >= 0 && ZIP_STORED_EXTENSIONS.contains(name.substring(i + 1).toLowerCase(Locale.ENGLISH));
     }
 
+    private static synchronized ExecutorService deflaters() {
+        if (deflaters == null) {
+            deflaters = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "DirectoryBrowserSupport.deflater"));
+        }
+        return deflaters;
+    }
+
+    private static ExecutorService deflaters;
+
     /**
      * Represents information about one file or folder.
      */
@@ -459,9 +623,17 @@ public final class DirectoryBrowserSupport implements HttpResponse {
 
     private static final class FileComparator implements Comparator<VirtualFile> {
         private Collator collator;
+        /**
+         * Files known to be directories, looked up once rather than on every comparison.
+         */
+        private final Set<VirtualFile> dirs = Collections.newSetFromMap(new IdentityHashMap<VirtualFile,Boolean>());
 
-        FileComparator(Locale locale) {
+        FileComparator(VirtualFile[] files, Locale locale) {
             this.collator = Collator.getInstance(locale);
+            for (VirtualFile f : files) {
+                if (isDirectory(f))
+                    dirs.add(f);
+            }
         }
 
         public int compare(VirtualFile lhs, VirtualFile rhs) {
@@ -473,11 +645,14 @@ public final class DirectoryBrowserSupport implements HttpResponse {
         }
 
         private int dirRank(VirtualFile f) {
+            return dirs.contains(f) ? 0 : 1;
+        }
+
+        private static boolean isDirectory(VirtualFile f) {
             try {
-            if(f.isDirectory())     return 0;
-            else                    return 1;
+                return f.isDirectory();
             } catch (IOException ex) {
-                return 0;
+                return true;
             }
         }
     }
@@ -485,26 +660,35 @@ public final class DirectoryBrowserSupport implements HttpResponse {
     private static final class BuildChildPaths extends MasterToSlaveCallable<List<List<Path>>,IOException> {
         private final VirtualFile cur;
         private final Locale locale;
-        BuildChildPaths(VirtualFile cur, Locale locale) {
+        private final int start;
+        private final int limit;
+        BuildChildPaths(VirtualFile cur, Locale locale, int start, int limit) {
             this.cur = cur;
             this.locale = locale;
+            this.start = start;
+            this.limit = limit;
         }
         @Override public List<List<Path>> call() throws IOException {
-            return buildChildPaths(cur, locale);
+            return buildChildPaths(cur, locale, start, limit);
         }
     }
     /**
      * Builds a list of list of {@link Path}. The inner
      * list of {@link Path} represents one child item to be shown
      * (this mechanism is used to skip empty intermediate directory.)
+     *
+     * Only the children from {@code start} are included, up to {@code limit} of them plus one more
+     * to tell the caller that there's another page.
      */
-    private static List<List<Path>> buildChildPaths(VirtualFile cur, Locale locale) throws IOException {
+    private static List<List<Path>> buildChildPaths(VirtualFile cur, Locale locale, int start, int limit) throws IOException {
             List<List<Path>> r = new ArrayList<List<Path>>();
 
             VirtualFile[] files = cur.list();
-                Arrays.sort(files,new FileComparator(locale));
-    
-                for( VirtualFile f : files ) {
+                Arrays.sort(files,new FileComparator(files, locale));
+                int end = (int) Math.min(files.length, (long) start + limit + 1);
+
+                for (int i = start; i < end; i++) {
+                    VirtualFile f = files[i];
                     Path p = new Path(Util.rawEncode(f.getName()), f.getName(), f.isDirectory(), f.length(), f.canRead());
                     if(!f.isDirectory()) {
                         r.add(Collections.singletonList(p));
@@ -585,6 +769,28 @@ public final class DirectoryBrowserSupport implements HttpResponse {
         }
 
 
+    /**
+     * Compression level of zip downloads, from 0 (store everything as is) to 9. Defaults to that of {@link Deflater}.
+     */
+    public static int ZIP_COMPRESSION_LEVEL = SystemProperties.getInteger(DirectoryBrowserSupport.class.getName() + ".zipCompressionLevel", Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * Extensions of files that are already compressed, which are put in zip downloads without compressing them again.
+     */
+    public static Set<String> ZIP_STORED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            SystemProperties.getString(DirectoryBrowserSupport.class.getName() + ".zipStoredExtensions",
+                    "zip,jar,war,ear,hpi,jpi,apk,ipa,aar,nupkg,whl,gz,tgz,bz2,tbz2,xz,txz,lzma,7z,rar,zst,png,jpg,jpeg,gif,mp3,mp4,mkv,avi").split("\\s*,\\s*")));
+
+    /**
+     * Maximum number of entries shown on one page of a directory listing; 0 or less shows them all.
+     */
+    public static int PAGE_SIZE = SystemProperties.getInteger(DirectoryBrowserSupport.class.getName() + ".pageSize", 1000);
+
+    /**
+     * Files at least this large are compressed by several threads when zipped.
+     */
+    public static int PARALLEL_DEFLATE_THRESHOLD = SystemProperties.getInteger(DirectoryBrowserSupport.class.getName() + ".parallelDeflateThreshold", 4 * 1024 * 1024);
+
     private static final Logger LOGGER = Logger.getLogger(DirectoryBrowserSupport.class.getName());
 
     @Restricted(NoExternalUse.class)
@@ -136,7 +136,17 @@ public class Executor extends Thread implements ModelObject {
     private final List<CauseOfInterruption> causes = new Vector<CauseOfInterruption>();
 
     public Executor(@Nonnull Computer owner, int n) {
-        super("Executor #"+n+" for "+owner.getDisplayName());
+        this(owner, n, 0);
+    }
+
+    /**
+     * @param stackSize
+     *      stack size of the thread, as in {@link Thread#Thread(ThreadGroup, Runnable, String, long)},
+     *      or 0 for the default of the JVM.
+     * @since TODO
+     */
+    protected Executor(@Nonnull Computer owner, int n, long stackSize) {
+        super(null, null, "Executor #"+n+" for "+owner.getDisplayName(), stackSize);
         this.owner = owner;
         this.queue = Jenkins.getInstance().getQueue();
         this.number = n;
@@ -26,11 +26,15 @@ package hudson.model;
 import hudson.Util;
 import hudson.XmlFile;
 import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
 import hudson.security.AccessControlled;
 import hudson.util.CopyOnWriteMap;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.Function1;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import jenkins.util.xml.XMLUtils;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
@@ -45,12 +49,25 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import jenkins.security.NotReallyRoleSensitiveCallable;
 import org.acegisecurity.AccessDeniedException;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
 import org.xml.sax.SAXException;
 
 /**
@@ -97,7 +114,7 @@ public abstract class ItemGroupMixIn {
      * @param modulesDir
      *      Directory that contains sub-directories for each child item.
      */
-    public static <K,V extends Item> Map<K,V> loadChildren(ItemGroup parent, File modulesDir, Function1<? extends K,? super V> key) {
+    public static <K,V extends Item> Map<K,V> loadChildren(final ItemGroup parent, File modulesDir, Function1<? extends K,? super V> key) {
         modulesDir.mkdirs(); // make sure it exists
 
         File[] subdirs = modulesDir.listFiles(new FileFilter() {
@@ -105,31 +122,99 @@ public abstract class ItemGroupMixIn {
                 return child.isDirectory();
             }
         });
-        CopyOnWriteMap.Tree<K,V> configurations = new CopyOnWriteMap.Tree<K,V>();
-        for (File subdir : subdirs) {
-            try {
-                // Try to retain the identity of an existing child object if we can.
-                V item = (V) parent.getItem(subdir.getName());
-                if (item == null) {
-                    XmlFile xmlFile = Items.getConfigFile(subdir);
-                    if (xmlFile.exists()) {
-                        item = (V) Items.load(parent, subdir);
-                    } else {
-                        Logger.getLogger(ItemGroupMixIn.class.getName()).log(Level.WARNING, "could not find file " + xmlFile.getFile());
-                        continue;
+
+        // children are loaded in parallel when possible; the result is sorted by key, so completion order does not matter
+        final Authentication auth = Jenkins.getAuthentication();
+        List<FutureTask<V>> tasks = new ArrayList<FutureTask<V>>(subdirs.length);
+        for (final File subdir : subdirs) {
+            tasks.add(new FutureTask<V>(new Callable<V>() {
+                public V call() throws Exception {
+                    SecurityContext old = ACL.impersonate(auth);
+                    try {
+                        return ItemGroupMixIn.<V>loadChild(parent, subdir);
+                    } finally {
+                        SecurityContextHolder.setContext(old);
                     }
-                } else {
-                    item.onLoad(parent, subdir.getName());
                 }
-                configurations.put(key.call(item), item);
-            } catch (Exception e) {
-                Logger.getLogger(ItemGroupMixIn.class.getName()).log(Level.WARNING, "could not load " + subdir, e);
+            }));
+        }
+        if (Jenkins.PARALLEL_LOAD && tasks.size()>1) {
+            ExecutorService pool = loadPool();
+            for (FutureTask<V> t : tasks)
+                pool.execute(t);
+        }
+        // run whatever the pool hasn't picked up yet ourselves.
+        // this also guarantees progress when nested item groups load their children from a pool thread.
+        for (FutureTask<V> t : tasks)
+            t.run();
+
+        CopyOnWriteMap.Tree<K,V> configurations = new CopyOnWriteMap.Tree<K,V>();
+        Map<K,V> loaded = new TreeMap<K,V>();
+        for (int i=0; i<subdirs.length; i++) {
+            try {
+                V item = tasks.get(i).get();
+                if (item!=null)
+                    loaded.put(key.call(item), item);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                Logger.getLogger(ItemGroupMixIn.class.getName()).log(Level.WARNING, "could not load " + subdirs[i], e.getCause());
+            } catch (RuntimeException e) {
+                Logger.getLogger(ItemGroupMixIn.class.getName()).log(Level.WARNING, "could not load " + subdirs[i], e);
+            } catch (InterruptedException e) {
+                Logger.getLogger(ItemGroupMixIn.class.getName()).log(Level.WARNING, "interrupted while loading " + subdirs[i], e);
+                Thread.currentThread().interrupt();
+                break;
             }
         }
+        configurations.putAll(loaded);
 
         return configurations;
     }
 
+    /**
+     * Loads a single child, or returns null if the directory doesn't contain an item.
+     */
+    private static <V extends Item> V loadChild(ItemGroup parent, File subdir) throws IOException {
+        // Try to retain the identity of an existing child object if we can.
+        V item = (V) parent.getItem(subdir.getName());
+        if (item == null) {
+            XmlFile xmlFile = Items.getConfigFile(subdir);
+            if (xmlFile.exists()) {
+                item = (V) Items.load(parent, subdir);
+            } else {
+                Logger.getLogger(ItemGroupMixIn.class.getName()).log(Level.WARNING, "could not find file " + xmlFile.getFile());
+                return null;
+            }
+        } else {
+            item.onLoad(parent, subdir.getName());
+        }
+        return item;
+    }
+
+    private static ExecutorService loadPool;
+
+    /**
+     * Pool shared by all the {@link ItemGroup}s for loading children, so that deeply nested folders
+     * don't multiply the number of threads.
+     */
+    private static synchronized ExecutorService loadPool() {
+        if (loadPool==null) {
+            ThreadPoolExecutor tpe = new ThreadPoolExecutor(LOAD_CONCURRENCY, LOAD_CONCURRENCY, 5L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(new DaemonThreadFactory(), "ItemGroupMixIn.loadChildren"));
+            tpe.allowCoreThreadTimeOut(true);
+            loadPool = tpe;
+        }
+        return loadPool;
+    }
+
+    /**
+     * Number of threads used to load children of item groups in parallel.
+     */
+    private static final int LOAD_CONCURRENCY = SystemProperties.getInteger(
+            ItemGroupMixIn.class.getName()+".loadConcurrency",
+            Runtime.getRuntime().availableProcessors() * 2);
+
     /**
      * {@link Item} -> name function.
      */
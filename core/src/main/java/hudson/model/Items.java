@@ -35,6 +35,7 @@ import hudson.triggers.Trigger;
 import hudson.util.DescriptorList;
 import hudson.util.EditDistance;
 import hudson.util.XStream2;
+import jenkins.diagnostics.StartupProfile;
 import jenkins.model.Jenkins;
 import org.acegisecurity.Authentication;
 import org.apache.commons.lang.StringUtils;
@@ -329,8 +330,13 @@ public class Items {
      *      The directory that contains the config file, not the config file itself.
      */
     public static Item load(ItemGroup parent, File dir) throws IOException {
+        long start = System.nanoTime();
+        long io = StartupProfile.ioNanos();
         Item item = (Item)getConfigFile(dir).read();
+        long read = System.nanoTime();
+        io = StartupProfile.ioNanos()-io;
         item.onLoad(parent,dir.getName());
+        StartupProfile.recordItem(item, io, read-start-io, System.nanoTime()-read);
         return item;
     }
 
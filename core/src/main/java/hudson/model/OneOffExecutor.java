@@ -24,6 +24,8 @@
 package hudson.model;
 
 import hudson.model.Queue.FlyweightTask;
+import jenkins.model.queue.AsynchronousExecution;
+import jenkins.util.SystemProperties;
 
 /**
  * {@link Executor} that's temporarily added to carry out tasks that doesn't consume
@@ -34,6 +36,19 @@ import hudson.model.Queue.FlyweightTask;
  */
 public class OneOffExecutor extends Executor {
     public OneOffExecutor(Computer owner) {
-        super(owner,-1);
+        super(owner,-1,STACK_SIZE);
     }
+
+    /**
+     * Stack size, in bytes, of the threads of one-off executors, or 0 for the default of the JVM.
+     *
+     * <p>
+     * Flyweight tasks mostly wait for the builds they trigger, so when thousands of them run at once,
+     * a smaller stack lets the master keep up with fewer resources. Tasks that don't need a thread at all
+     * while they wait should rather use {@link AsynchronousExecution}.
+     * The JVM may round this value, or ignore it on some platforms.
+     *
+     * @since TODO
+     */
+    public static int STACK_SIZE = SystemProperties.getInteger(OneOffExecutor.class.getName() + ".stackSize", 0);
 }
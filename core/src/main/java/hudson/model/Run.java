@@ -98,7 +98,9 @@ import javax.servlet.http.HttpServletResponse;
 import jenkins.model.ArtifactManager;
 import jenkins.model.ArtifactManagerConfiguration;
 import jenkins.model.ArtifactManagerFactory;
+import jenkins.model.BackgroundBuildDiscarder;
 import jenkins.model.BuildDiscarder;
+import jenkins.model.DeduplicatingArtifactManager;
 import jenkins.model.Jenkins;
 import jenkins.model.JenkinsLocationConfiguration;
 import jenkins.model.PeepholePermalink;
@@ -107,6 +109,8 @@ import jenkins.model.StandardArtifactManager;
 import jenkins.model.lazy.BuildReference;
 import jenkins.model.lazy.LazyBuildMixIn;
 import jenkins.util.VirtualFile;
+import jenkins.util.io.DeferredDeletion;
+import jenkins.util.io.DeferredSaver;
 import jenkins.util.io.OnMaster;
 import net.sf.json.JSONObject;
 import org.acegisecurity.AccessDeniedException;
@@ -272,6 +276,12 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     private volatile transient RunExecution runner;
 
+    /**
+     * If the build is in progress, the most recent part of its log kept in memory.
+     * This field is not persisted.
+     */
+    private volatile transient LogTail logTail;
+
     /**
      * Artifact manager associated with this build, if any.
      * @since 1.532
@@ -502,6 +512,16 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         return state.compareTo(State.COMPLETED) < 0;
     }
 
+    /**
+     * Gets the in-memory tail of the log, while this build is writing it through {@link #execute(RunExecution)}.
+     *
+     * @since 2.6
+     */
+    @Restricted(NoExternalUse.class)
+    public @CheckForNull LogTail getLogTail() {
+        return logTail;
+    }
+
     /**
      * Gets the {@link Executor} building this job, if it's being built.
      * Otherwise null.
@@ -1378,7 +1398,7 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     public void writeLogTo(long offset, @Nonnull XMLOutput out) throws IOException {
         try {
-			getLogText().writeHtmlTo(offset,out.asWriter());
+			RenderedConsoleCache.writeHtmlTo(this,getLogText(),offset,out.asWriter());
 		} catch (IOException e) {
 			// try to fall back to the old getLogInputStream()
 			// mainly to support .gz compressed files
@@ -1407,9 +1427,15 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         pos = logText.writeLogTo(pos, out);
 
         while (!logText.isComplete()) {
-            // Instead of us hitting the log file as many times as possible, instead we get the information once every
-            // second to avoid CPU usage getting very high.
-            Thread.sleep(1000);
+            LogTail tail = logTail;
+            if (tail != null) {
+                // wake up as soon as something is written
+                tail.await(tail.length(), 1000);
+            } else {
+                // Instead of us hitting the log file as many times as possible, instead we get the information once every
+                // second to avoid CPU usage getting very high.
+                Thread.sleep(1000);
+            }
             logText = getLogText();
             pos = logText.writeLogTo(pos, out);
         }
@@ -1420,7 +1446,7 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * @return A {@link Run} log with annotations
      */   
     public @Nonnull AnnotatedLargeText getLogText() {
-        return new AnnotatedLargeText(getLogFile(),getCharset(),!isLogUpdated(),this);
+        return new AnnotatedLargeText(getLogFile(),getCharset(),!isLogUpdated(),this,logTail);
     }
 
     @Override
@@ -1486,6 +1512,27 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         RunListener.fireDeleted(this);
 
         synchronized (this) { // avoid holding a lock while calling plugin impls of onDeleted
+        DeferredSaver.cancel(this);
+        if (artifactManager instanceof DeduplicatingArtifactManager) {
+            // its blobs live outside the build directory, so release our references to them.
+            // other managers either keep everything under rootDir, or never had their artifacts deleted with the build.
+            try {
+                deleteArtifacts();
+            } catch (IOException e) {
+                // leftovers are collected later on
+                LOGGER.log(WARNING, "Failed to release the artifacts of " + this, e);
+            }
+        }
+        if (DeferredDeletion.ENABLED) {
+            try {
+                DeferredDeletion.delete(rootDir);
+            } catch (IOException e) {
+                throw new IOException(rootDir+" is in use", e);
+            }
+            LOGGER.log(FINE, "{0}: {1} moved to the trash", new Object[] {this, rootDir});
+            removeRunFromParent();
+            return;
+        }
         File tmp = new File(rootDir.getParentFile(),'.'+rootDir.getName());
         
         if (tmp.exists()) {
@@ -1705,7 +1752,8 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
                     // don't do buffering so that what's written to the listener
                     // gets reflected to the file immediately, which can then be
                     // served to the browser immediately
-                    OutputStream logger = new FileOutputStream(getLogFile());
+                    logTail = new LogTail();
+                    OutputStream logger = logTail.decorate(new FileOutputStream(getLogFile()));
                     RunT build = job.getBuild();
 
                     // Global log filters
@@ -1793,6 +1841,10 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
                     listener.finished(result);
                     listener.closeQuietly();
                 }
+                if (logTail != null) {
+                    logTail.close();
+                    logTail = null;
+                }
 
                 try {
                     save();
@@ -1802,7 +1854,11 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
             }
 
             try {
-                getParent().logRotate();
+                if (BackgroundBuildDiscarder.ENABLED) {
+                    BackgroundBuildDiscarder.schedule(getParent());
+                } else {
+                    getParent().logRotate();
+                }
             } catch (Exception e) {
 		LOGGER.log(Level.SEVERE, "Failed to rotate log",e);
 	    }
@@ -1895,7 +1951,7 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * Save the settings to a file.
      */
     public synchronized void save() throws IOException {
-        if(BulkChange.contains(this))   return;
+        if(BulkChange.contains(this) || DeferredSaver.defer(this))   return;
         getDataFile().write(this);
         SaveableListener.fireOnChange(this, getDataFile());
     }
@@ -2095,6 +2151,28 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         }
     }
 
+    /**
+     * Streams the annotated console output as server-sent events, starting from the {@code start} offset,
+     * or from the {@code Last-Event-ID} of a browser that reconnects.
+     *
+     * @since 2.6
+     */
+    public void doConsoleStream(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        long start = 0;
+        String s = req.getHeader("Last-Event-ID"); // set by browsers reconnecting
+        if (s == null) {
+            s = req.getParameter("start");
+        }
+        if (s != null) {
+            try {
+                start = Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                // start from the beginning
+            }
+        }
+        ConsoleEventStream.start(this, start, req, rsp);
+    }
+
     /**
      * Handles incremental log output.
      * @deprecated as of 1.352
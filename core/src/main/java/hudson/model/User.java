@@ -25,6 +25,7 @@
 package hudson.model;
 
 import jenkins.util.SystemProperties;
+import jenkins.util.io.DeferredSaver;
 import com.google.common.base.Predicate;
 import com.infradna.tool.bridge_method_injector.WithBridgeMethods;
 import hudson.*;
@@ -723,7 +724,7 @@ public class User extends AbstractModelObject implements AccessControlled, Descr
         if (! isIdOrFullnameAllowed(fullName)) {
             throw FormValidation.error(Messages.User_IllegalFullname(fullName));
         }
-        if(BulkChange.contains(this))   return;
+        if(BulkChange.contains(this) || DeferredSaver.defer(this))   return;
         getConfigFile().write(this);
         SaveableListener.fireOnChange(this, getConfigFile());
     }
@@ -735,6 +736,7 @@ public class User extends AbstractModelObject implements AccessControlled, Descr
      *      if we fail to delete.
      */
     public synchronized void delete() throws IOException {
+        DeferredSaver.cancel(this);
         final IdStrategy strategy = idStrategy();
         byNameLock.readLock().lock();
         try {
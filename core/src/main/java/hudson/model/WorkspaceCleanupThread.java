@@ -26,18 +26,32 @@ package hudson.model;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.FilePath;
+import hudson.Functions;
+import hudson.remoting.VirtualChannel;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.security.MasterToSlaveCallable;
 import jenkins.util.SystemProperties;
 import hudson.Util;
 import hudson.slaves.WorkspaceList;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import jenkins.model.Jenkins;
 import jenkins.model.ModifiableTopLevelItemGroup;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
 import org.jenkinsci.Symbol;
 
 /**
@@ -59,7 +73,7 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
         ExtensionList.lookup(AsyncPeriodicWork.class).get(WorkspaceCleanupThread.class).run();
     }
 
-    @Override protected void execute(TaskListener listener) throws InterruptedException, IOException {
+    @Override protected void execute(final TaskListener listener) throws InterruptedException, IOException {
         if (disabled) {
             LOGGER.fine("Disabled. Skipping execution");
             return;
@@ -68,54 +82,118 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
         Jenkins j = Jenkins.getInstance();
         nodes.add(j);
         nodes.addAll(j.getNodes());
+        final List<TopLevelItem> items = new ArrayList<TopLevelItem>();
         for (TopLevelItem item : j.getAllItems(TopLevelItem.class)) {
             if (item instanceof ModifiableTopLevelItemGroup) { // no such thing as TopLevelItemGroup, and ItemGroup offers no access to its type parameter
                 continue; // children will typically have their own workspaces as subdirectories; probably no real workspace of its own
             }
-            listener.getLogger().println("Checking " + item.getFullDisplayName());
-            for (Node node : nodes) {
-                FilePath ws = node.getWorkspaceFor(item);
-                if (ws == null) {
-                    continue; // offline, fine
+            items.add(item);
+        }
+
+        // nodes are independent of each other, and most of the time goes into waiting for them
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, concurrency),
+                new NamingThreadFactory(new DaemonThreadFactory(), "WorkspaceCleanupThread"));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Node node : nodes) {
+                futures.add(pool.submit(new java.util.concurrent.Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+                        try {
+                            cleanUp(node, items, listener);
+                        } finally {
+                            SecurityContextHolder.setContext(old);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException x) {
+                    x.getCause().printStackTrace(listener.error("Failed to clean up workspaces"));
                 }
-                boolean check;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Deletes the old workspaces of the given items on one node.
+     */
+    private void cleanUp(@Nonnull Node node, List<TopLevelItem> items, TaskListener listener) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        List<TopLevelItem> owners = new ArrayList<TopLevelItem>();
+        List<FilePath> workspaces = new ArrayList<FilePath>();
+        List<String> paths = new ArrayList<String>();
+        for (TopLevelItem item : items) {
+            FilePath ws = node.getWorkspaceFor(item);
+            if (ws == null) {
+                continue; // offline, fine
+            }
+            owners.add(item);
+            workspaces.add(ws);
+            paths.add(ws.getRemote());
+        }
+        if (workspaces.isEmpty()) {
+            return;
+        }
+        listener.getLogger().println("Checking " + workspaces.size() + " workspaces on " + node.getDisplayName());
+
+        long[] lastModified;
+        try {
+            // all on the same channel
+            lastModified = workspaces.get(0).act(new LastModified(paths));
+        } catch (IOException x) {
+            x.printStackTrace(listener.error("Failed to check " + node.getDisplayName()));
+            return;
+        }
+
+        int deleted = 0;
+        long freed = 0;
+        for (int i = 0; i < workspaces.size(); i++) {
+            FilePath ws = workspaces.get(i);
+            boolean check;
+            try {
+                check = shouldBeDeleted(owners.get(i), ws, node, lastModified[i]);
+            } catch (IOException x) {
+                x.printStackTrace(listener.error("Failed to check " + ws + " on " + node.getDisplayName()));
+                continue;
+            }
+            if (check) {
+                listener.getLogger().println("Deleting " + ws + " on " + node.getDisplayName());
                 try {
-                    check = shouldBeDeleted(item, ws, node);
+                    long size = ws.act(new Delete());
+                    size += WorkspaceList.tempDir(ws).act(new Delete());
+                    deleted++;
+                    freed += size;
                 } catch (IOException x) {
-                    x.printStackTrace(listener.error("Failed to check " + node.getDisplayName()));
-                    continue;
-                } catch (InterruptedException x) {
-                    x.printStackTrace(listener.error("Failed to check " + node.getDisplayName()));
-                    continue;
-                }
-                if (check) {
-                    listener.getLogger().println("Deleting " + ws + " on " + node.getDisplayName());
-                    try {
-                        ws.deleteRecursive();
-                        WorkspaceList.tempDir(ws).deleteRecursive();
-                    } catch (IOException x) {
-                        x.printStackTrace(listener.error("Failed to delete " + ws + " on " + node.getDisplayName()));
-                    } catch (InterruptedException x) {
-                        x.printStackTrace(listener.error("Failed to delete " + ws + " on " + node.getDisplayName()));
-                    }
+                    x.printStackTrace(listener.error("Failed to delete " + ws + " on " + node.getDisplayName()));
                 }
             }
         }
+        listener.getLogger().println("Deleted " + deleted + " workspaces on " + node.getDisplayName()
+                + ", freeing " + Functions.humanReadableByteSize(freed)
+                + ", in " + Util.getTimeSpanString(System.currentTimeMillis() - start));
     }
 
-    private boolean shouldBeDeleted(@Nonnull TopLevelItem item, FilePath dir, @Nonnull Node n) throws IOException, InterruptedException {
-        // TODO: the use of remoting is not optimal.
-        // One remoting can execute "exists", "lastModified", and "delete" all at once.
-        // (Could even invert master loop so that one FileCallable takes care of all known items.)
-        if(!dir.exists()) {
+    /**
+     * @param lastModified
+     *      timestamp of the directory, or -1 if it doesn't exist.
+     */
+    private boolean shouldBeDeleted(@Nonnull TopLevelItem item, FilePath dir, @Nonnull Node n, long lastModified) throws IOException, InterruptedException {
+        if(lastModified == -1) {
             LOGGER.log(Level.FINE, "Directory {0} does not exist", dir);
             return false;
         }
 
         // if younger than a month, keep it
         long now = new Date().getTime();
-        if(dir.lastModified() + retainForDays * DAY > now) {
-            LOGGER.log(Level.FINE, "Directory {0} is only {1} old, so not deleting", new Object[] {dir, Util.getTimeSpanString(now-dir.lastModified())});
+        if(lastModified + retainForDays * DAY > now) {
+            LOGGER.log(Level.FINE, "Directory {0} is only {1} old, so not deleting", new Object[] {dir, Util.getTimeSpanString(now-lastModified)});
             return false;
         }
 
@@ -142,6 +220,62 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
         return true;
     }
 
+    /**
+     * Gets the timestamps of several directories at once, -1 for those that don't exist.
+     */
+    private static final class LastModified extends MasterToSlaveCallable<long[],IOException> {
+        private final List<String> paths;
+
+        LastModified(List<String> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        public long[] call() throws IOException {
+            long[] r = new long[paths.size()];
+            for (int i = 0; i < r.length; i++) {
+                File f = new File(paths.get(i));
+                r[i] = f.exists() ? f.lastModified() : -1;
+            }
+            return r;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Deletes a directory, not following symbolic links,
+     * and returns the total size of the files it contained.
+     * Adding up sizes as it goes saves walking the tree twice.
+     */
+    private static final class Delete extends MasterToSlaveFileCallable<Long> {
+        @Override
+        public Long invoke(File f, VirtualChannel channel) throws IOException {
+            if (!f.exists() && !Util.isSymlink(f)) {
+                return 0L;
+            }
+            return delete(f);
+        }
+
+        private static long delete(File f) throws IOException {
+            long size = 0;
+            if (!Util.isSymlink(f)) {
+                File[] children = f.listFiles();
+                if (children == null) {
+                    size = f.length();
+                } else {
+                    for (File child : children) {
+                        size += delete(child);
+                    }
+                }
+            }
+            Util.deleteFile(f);
+            return size;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
     private static final Logger LOGGER = Logger.getLogger(WorkspaceCleanupThread.class.getName());
 
     /**
@@ -158,4 +292,9 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
      * Number of days workspaces should be retained.
      */
     public static int retainForDays = SystemProperties.getInteger(WorkspaceCleanupThread.class.getName()+".retainForDays", 30);
+
+    /**
+     * Number of nodes cleaned up at the same time.
+     */
+    public static int concurrency = SystemProperties.getInteger(WorkspaceCleanupThread.class.getName()+".concurrency", 8);
 }
@@ -4,6 +4,7 @@ import hudson.model.Computer;
 import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 
 import javax.annotation.CheckForNull;
 import java.io.IOException;
@@ -58,11 +59,29 @@ public abstract class AbstractAsyncNodeMonitorDescriptor<T> extends AbstractNode
         return null;
     }
 
+    /**
+     * Whether the result depends on how long the call to the agent takes, like a clock or a response time.
+     * Such monitors are not batched with the others, whose run time would distort their measurement.
+     *
+     * @since TODO
+     */
+    protected boolean isTimingSensitive() {
+        return false;
+    }
+
     /**
      * Performs all monitoring concurrently.
+     *
+     * <p>
+     * Unless {@link #BATCHED} is turned off or the monitor {@link #isTimingSensitive() is timing sensitive},
+     * this is done together with the other monitors, so that each agent gets a single request for all of them.
      */
     @Override
     protected Map<Computer, T> monitor() throws InterruptedException {
+        if (BATCHED && !isTimingSensitive()) {
+            return BatchedNodeProbe.INSTANCE.monitor(this);
+        }
+
         Map<Computer,Future<T>> futures = new HashMap<Computer,Future<T>>();
 
         for (Computer c : Jenkins.getInstance().getComputers()) {
@@ -107,5 +126,10 @@ public abstract class AbstractAsyncNodeMonitorDescriptor<T> extends AbstractNode
         return data;
     }
 
+    /**
+     * Whether to collect the data of all monitors from an agent with a single call.
+     */
+    public static boolean BATCHED = !SystemProperties.getBoolean(AbstractAsyncNodeMonitorDescriptor.class.getName() + ".unbatched");
+
     private static final Logger LOGGER = Logger.getLogger(AbstractAsyncNodeMonitorDescriptor.class.getName());
 }
@@ -92,12 +92,14 @@ public abstract class AbstractNodeMonitorDescriptor<T> extends Descriptor<NodeMo
     }
 
     private void schedule(long interval) {
+        // monitors with the same interval run at the same time, so that they can share the calls to the agents
+        long delay = interval - System.currentTimeMillis() % interval;
         Timer.get()
             .scheduleAtFixedRate(new SafeTimerTask() {
                 public void doRun() {
                     triggerUpdate();
                 }
-            }, interval, interval, TimeUnit.MILLISECONDS);
+            }, delay, interval, TimeUnit.MILLISECONDS);
     }
 
     /**
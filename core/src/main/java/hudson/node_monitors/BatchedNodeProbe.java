@@ -0,0 +1,406 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.node_monitors;
+
+import hudson.model.Computer;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.remoting.RoleChecker;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Collects the data of all the {@link AbstractAsyncNodeMonitorDescriptor}s with a single round trip per agent.
+ *
+ * <p>
+ * Monitors are updated at about the same time: they share the same schedule, and they are all triggered
+ * together when an agent comes online or when the user asks for a refresh. So the first one to ask
+ * starts a round that also runs the callables of the other monitors, and those asking while it's in progress
+ * or shortly after it completed get their data from it.
+ *
+ * <p>
+ * Within a round, calls to the agents are spread over a short period, in a different order every time,
+ * so that the master doesn't get all the responses at once.
+ *
+ * <p>
+ * Monitors that stop asking, for instance because they were removed from the configuration,
+ * are dropped from the rounds after a while.
+ * Monitors whose result depends on how long the call takes are not batched at all,
+ * see {@link AbstractAsyncNodeMonitorDescriptor#isTimingSensitive()}.
+ *
+ * <p>
+ * Batching couples the monitors of an agent: they share one call, so the results of all of them
+ * arrive when the slowest is done. To keep one hung callable, for instance one stuck on a dead
+ * file system, from taking the data of the others with it, the agent runs the callables concurrently
+ * and gives up on each after {@link #agentTimeLimit its own time limit}, reporting just that one as failed.
+ * Only if the agent doesn't answer at all is a whole round lost for it.
+ */
+final class BatchedNodeProbe {
+    static final BatchedNodeProbe INSTANCE = new BatchedNodeProbe();
+
+    /**
+     * Monitors that asked for data recently, all of which are included in subsequent rounds.
+     */
+    @GuardedBy("this")
+    private final Map<AbstractAsyncNodeMonitorDescriptor<?>,Participant> participants = new LinkedHashMap<AbstractAsyncNodeMonitorDescriptor<?>,Participant>();
+
+    @GuardedBy("this")
+    private Round last;
+
+    private BatchedNodeProbe() {}
+
+    /**
+     * Obtains the data for the given monitor from the latest round, running a new one if needed.
+     */
+    <T> Map<Computer,T> monitor(AbstractAsyncNodeMonitorDescriptor<T> d) throws InterruptedException {
+        Round r;
+        boolean run = false;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Participant p = participants.get(d);
+            if (p == null) {
+                participants.put(d, new Participant(now));
+            } else {
+                p.asked(now);
+            }
+            r = last;
+            // agents that came online since need to be looked at
+            if (r == null || !r.descriptors.contains(d) || !r.isRecent() || !r.computers.containsAll(Arrays.asList(Jenkins.getInstance().getComputers()))) {
+                for (Iterator<Participant> it = participants.values().iterator(); it.hasNext();) {
+                    if (!it.next().isActive(now)) {
+                        it.remove();
+                    }
+                }
+                r = last = new Round(new ArrayList<AbstractAsyncNodeMonitorDescriptor<?>>(participants.keySet()));
+                run = true;
+            }
+        }
+        if (run) {
+            r.run();
+        } else {
+            r.await();
+        }
+        return r.get(d);
+    }
+
+    /**
+     * Monitors included in the next round.
+     */
+    synchronized List<AbstractAsyncNodeMonitorDescriptor<?>> getParticipants() {
+        return new ArrayList<AbstractAsyncNodeMonitorDescriptor<?>>(participants.keySet());
+    }
+
+    /**
+     * When a monitor asked for data, and how often it does.
+     */
+    private static final class Participant {
+        private long lastAsked;
+        /**
+         * Observed time between requests, starting with the usual schedule of the monitors.
+         */
+        private long interval = HOUR;
+
+        Participant(long now) {
+            lastAsked = now;
+        }
+
+        void asked(long now) {
+            interval = now - lastAsked;
+            lastAsked = now;
+        }
+
+        /**
+         * Whether the monitor is still expected to ask, having done so within twice its usual interval.
+         */
+        boolean isActive(long now) {
+            return now - lastAsked < 2 * Math.max(interval, WINDOW);
+        }
+    }
+
+    /**
+     * One update of all the monitors on all the agents.
+     */
+    private static final class Round {
+        private final List<AbstractAsyncNodeMonitorDescriptor<?>> descriptors;
+        private final List<Computer> computers;
+        private final long timeout;
+        private final CountDownLatch done = new CountDownLatch(1);
+        /**
+         * Results indexed like {@link #descriptors} for each computer; null if that computer couldn't be monitored.
+         */
+        private final Map<Computer,Object[]> results = new HashMap<Computer,Object[]>();
+        private volatile long completed;
+
+        Round(List<AbstractAsyncNodeMonitorDescriptor<?>> descriptors) {
+            this.descriptors = descriptors;
+            this.computers = new ArrayList<Computer>(Arrays.asList(Jenkins.getInstance().getComputers()));
+            // the round has to be as patient as the most patient participant
+            long timeout = 0;
+            for (AbstractAsyncNodeMonitorDescriptor<?> d : descriptors) {
+                timeout = Math.max(timeout, d.getMonitoringTimeOut());
+            }
+            this.timeout = timeout;
+            Collections.shuffle(computers);
+        }
+
+        boolean isRecent() {
+            return completed == 0 || System.currentTimeMillis() - completed < WINDOW;
+        }
+
+        void await() throws InterruptedException {
+            done.await();
+        }
+
+        void run() throws InterruptedException {
+            try {
+                doRun();
+            } finally {
+                completed = System.currentTimeMillis();
+                done.countDown();
+            }
+        }
+
+        private void doRun() throws InterruptedException {
+            final long start = System.currentTimeMillis();
+            final long end = start + timeout;
+            // leave most of the time out to the agents to respond
+            final long spread = Math.min(SPREAD, timeout / 4);
+
+            Map<Computer,Future<List<Object>>> futures = new HashMap<Computer,Future<List<Object>>>();
+            for (int i = 0; i < computers.size(); i++) {
+                Computer c = computers.get(i);
+                synchronized (results) {
+                    results.put(c, null);    // sentinel value
+                }
+                long due = start + spread * i / computers.size();
+                long now = System.currentTimeMillis();
+                if (due > now) {
+                    Thread.sleep(due - now);
+                }
+                try {
+                    VirtualChannel ch = c.getChannel();
+                    if (ch != null) {
+                        futures.put(c, ch.callAsync(new Batch(createCallables(c), timeLimits())));
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.log(WARNING, "Failed to monitor " + c.getDisplayName(), e);
+                } catch (IOException e) {
+                    LOGGER.log(WARNING, "Failed to monitor " + c.getDisplayName(), e);
+                }
+            }
+
+            for (Map.Entry<Computer,Future<List<Object>>> e : futures.entrySet()) {
+                Computer c = e.getKey();
+                try {
+                    List<Object> r = e.getValue().get(Math.max(0, end - System.currentTimeMillis()), MILLISECONDS);
+                    Object[] values = new Object[descriptors.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        Object v = r.get(i);
+                        if (v instanceof Failure) {
+                            LOGGER.log(WARNING, "Failed to monitor " + c.getDisplayName() + " for " + descriptors.get(i).getDisplayName(), ((Failure) v).cause);
+                        } else {
+                            values[i] = v;
+                        }
+                    }
+                    synchronized (results) {
+                        results.put(c, values);
+                    }
+                } catch (RuntimeException x) {
+                    LOGGER.log(WARNING, "Failed to monitor " + c.getDisplayName(), x);
+                } catch (ExecutionException x) {
+                    LOGGER.log(WARNING, "Failed to monitor " + c.getDisplayName(), x);
+                } catch (TimeoutException x) {
+                    LOGGER.log(WARNING, "Failed to monitor " + c.getDisplayName(), x);
+                }
+            }
+        }
+
+        private List<Callable<?,IOException>> createCallables(Computer c) {
+            List<Callable<?,IOException>> callables = new ArrayList<Callable<?,IOException>>(descriptors.size());
+            for (AbstractAsyncNodeMonitorDescriptor<?> d : descriptors) {
+                Callable<?,IOException> cc = null;
+                try {
+                    cc = d.createCallable(c);
+                } catch (RuntimeException e) {
+                    LOGGER.log(WARNING, "Failed to monitor " + c.getDisplayName() + " for " + d.getDisplayName(), e);
+                }
+                callables.add(cc);
+            }
+            return callables;
+        }
+
+        private long[] timeLimits() {
+            long[] limits = new long[descriptors.size()];
+            for (int i = 0; i < limits.length; i++) {
+                limits[i] = agentTimeLimit(descriptors.get(i));
+            }
+            return limits;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> Map<Computer,T> get(AbstractAsyncNodeMonitorDescriptor<T> d) {
+            int i = descriptors.indexOf(d);
+            Map<Computer,T> data = new HashMap<Computer,T>();
+            synchronized (results) {
+                for (Map.Entry<Computer,Object[]> e : results.entrySet()) {
+                    Object[] values = e.getValue();
+                    data.put(e.getKey(), values != null ? (T) values[i] : null);
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * How long, in milliseconds, the agent waits for the callable of a monitor before reporting it as failed.
+     * This leaves a quarter of the monitor's time out for the call to be scheduled, see {@link #SPREAD},
+     * and for the response to come back, so the batch answers before the round gives up on the agent.
+     */
+    static long agentTimeLimit(AbstractAsyncNodeMonitorDescriptor<?> d) {
+        return d.getMonitoringTimeOut() * 3 / 4;
+    }
+
+    /**
+     * Runs the callables of all the monitors on the agent, in one go.
+     * Each runs on its own thread and is given up on once its time limit passes.
+     */
+    private static final class Batch extends MasterToSlaveCallable<List<Object>,IOException> {
+        private final List<Callable<?,IOException>> callables;
+        /**
+         * Time limit in milliseconds of each callable.
+         */
+        private final long[] timeLimits;
+
+        Batch(List<Callable<?,IOException>> callables, long[] timeLimits) {
+            this.callables = callables;
+            this.timeLimits = timeLimits;
+        }
+
+        public List<Object> call() {
+            long start = System.currentTimeMillis();
+            List<Future<?>> futures = new ArrayList<Future<?>>(callables.size());
+            for (final Callable<?,IOException> c : callables) {
+                futures.add(c == null ? null : POOL.submit(new java.util.concurrent.Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return c.call();
+                    }
+                }));
+            }
+
+            List<Object> r = new ArrayList<Object>(callables.size());
+            for (int i = 0; i < futures.size(); i++) {
+                Future<?> f = futures.get(i);
+                if (f == null) {
+                    r.add(null);
+                    continue;
+                }
+                try {
+                    r.add(f.get(Math.max(0, start + timeLimits[i] - System.currentTimeMillis()), MILLISECONDS));
+                } catch (ExecutionException e) {
+                    r.add(new Failure(e.getCause())); // including LinkageError, as SwapSpaceMonitor may report
+                } catch (TimeoutException e) {
+                    f.cancel(true);
+                    r.add(new Failure(new TimeoutException("Gave up after " + timeLimits[i] + "ms")));
+                } catch (InterruptedException e) {
+                    f.cancel(true);
+                    r.add(new Failure(e));
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return r;
+        }
+
+        @Override
+        public void checkRoles(RoleChecker checker) throws SecurityException {
+            super.checkRoles(checker);
+            for (Callable<?,IOException> c : callables) {
+                if (c != null) {
+                    c.checkRoles(checker);
+                }
+            }
+        }
+
+        /**
+         * Threads of the agent running the callables; those that hang are replaced by new ones.
+         */
+        private static final ExecutorService POOL = Executors.newCachedThreadPool(
+                new NamingThreadFactory(new DaemonThreadFactory(), "BatchedNodeProbe"));
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Failure of one of the callables of a {@link Batch}, which doesn't affect the others.
+     */
+    private static final class Failure implements Serializable {
+        private final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * How long, in milliseconds, the results of a round are reused by monitors asking after it completed.
+     */
+    static long WINDOW = SystemProperties.getInteger(BatchedNodeProbe.class.getName() + ".window", 15000);
+
+    /**
+     * Period, in milliseconds, over which the calls to the agents of a round are spread.
+     */
+    static long SPREAD = SystemProperties.getInteger(BatchedNodeProbe.class.getName() + ".spread", 5000);
+
+    private static final long HOUR = HOURS.toMillis(1);
+
+    private static final Logger LOGGER = Logger.getLogger(BatchedNodeProbe.class.getName());
+}
@@ -69,6 +69,11 @@ public class ClockMonitor extends NodeMonitor {
             return n.getClockDifferenceCallable();
         }
 
+        @Override
+        protected boolean isTimingSensitive() {
+            return true;
+        }
+
         public String getDisplayName() {
             return Messages.ClockMonitor_DisplayName();
         }
@@ -27,6 +27,10 @@ import hudson.Util;
 import hudson.Extension;
 import hudson.model.Computer;
 import hudson.remoting.Callable;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ChannelPinger;
+import hudson.slaves.RoundTripStatistics;
 import jenkins.security.MasterToSlaveCallable;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.StaplerRequest;
@@ -35,6 +39,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
@@ -49,6 +54,10 @@ public class ResponseTimeMonitor extends NodeMonitor {
     public static final AbstractNodeMonitorDescriptor<Data> DESCRIPTOR = new AbstractAsyncNodeMonitorDescriptor<Data>() {
         @Override
         protected Callable<Data,IOException> createCallable(Computer c) {
+            if (recentPing(c) >= 0) {
+                // no need to ask again
+                return null;
+            }
             return new Step1(get(c));
         }
 
@@ -59,8 +68,8 @@ public class ResponseTimeMonitor extends NodeMonitor {
                 Computer c = e.getKey();
                 Data d = e.getValue();
                 if (d ==null) {
-                    // if we failed to monitor, put in the special value that indicates a failure
-                    e.setValue(d=new Data(get(c),-1L));
+                    // either the ping told us, or we failed to monitor, and then put in the special value that indicates a failure
+                    e.setValue(d=new Data(get(c),recentPing(c)));
                 }
 
                 if(d.hasTooManyTimeouts() && !isIgnored()) {
@@ -75,6 +84,11 @@ public class ResponseTimeMonitor extends NodeMonitor {
             return base;
         }
 
+        @Override
+        protected boolean isTimingSensitive() {
+            return true;
+        }
+
         public String getDisplayName() {
             return Messages.ResponseTimeMonitor_DisplayName();
         }
@@ -85,6 +99,15 @@ public class ResponseTimeMonitor extends NodeMonitor {
         }
     };
 
+    /**
+     * Round trip time of the last {@link ChannelPinger} ping if it's recent, or -1.
+     */
+    private static long recentPing(Computer c) {
+        VirtualChannel ch = c.getChannel();
+        RoundTripStatistics stats = ch instanceof Channel ? RoundTripStatistics.of((Channel) ch) : null;
+        return stats != null ? stats.getRecentMillis(RECENT_PING) : -1;
+    }
+
     private static final class Step1 extends MasterToSlaveCallable<Data,IOException> {
         private Data cur;
 
@@ -216,5 +239,10 @@ public class ResponseTimeMonitor extends NodeMonitor {
      */
     private static final long TIMEOUT = 5000;
 
+    /**
+     * How old a ping can be to be used instead of measuring the response time again.
+     */
+    private static final long RECENT_PING = TimeUnit.MINUTES.toMillis(10);
+
     private static final Logger LOGGER = Logger.getLogger(ResponseTimeMonitor.class.getName());
 }
@@ -0,0 +1,368 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.slaves;
+
+import hudson.model.ComputerListener;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits how many agents go through {@link SlaveComputer#setChannel(hudson.remoting.Channel, java.io.OutputStream, hudson.remoting.Channel.Listener)}
+ * at the same time.
+ *
+ * <p>
+ * Bringing an agent online takes a few round trips and runs all the {@link ComputerListener}s, which is cheap
+ * for one agent but saturates the master when all agents reconnect at once after a restart.
+ * Agents beyond {@link #MAX_CONCURRENT} wait for their turn, first come first served.
+ * An agent that takes longer than {@link #TIMEOUT} to come online stops counting against the limit,
+ * so that a few hung agents cannot keep all the others out.
+ *
+ * <p>
+ * Callers can either {@linkplain Ticket#await(PrintStream) block} until their turn, or hand over
+ * {@linkplain Ticket#whenAdmitted(PrintStream, Executor, Runnable) what to do} once it comes, so that
+ * thousands of agents waiting in line do not hold a thread each.
+ *
+ * @since TODO
+ */
+public final class AgentAdmission {
+
+    private static final AgentAdmission INSTANCE = new AgentAdmission();
+
+    public static AgentAdmission get() {
+        return INSTANCE;
+    }
+
+    @GuardedBy("this")
+    private final Set<Ticket> pending = new LinkedHashSet<Ticket>();
+    @GuardedBy("this")
+    private final Set<Ticket> admitted = new LinkedHashSet<Ticket>();
+
+    /**
+     * Scheduled to admit more agents once an admitted one times out, when nobody waits in {@link Ticket#await}.
+     */
+    @GuardedBy("this")
+    private ScheduledFuture<?> expiryCheck;
+
+    private final Statistics waiting = new Statistics();
+    private final Statistics onboarding = new Statistics();
+
+    private AgentAdmission() {}
+
+    /**
+     * Puts the given agent in line, admitting it right away if there is room, without waiting.
+     *
+     * @return
+     *      to be {@link Ticket#await(PrintStream) waited for}, or {@linkplain Ticket#whenAdmitted continued from},
+     *      unless already {@link Ticket#isAdmitted() admitted},
+     *      and to be {@link Ticket#release() released} when the agent is online or failed to get there.
+     */
+    public Ticket enqueue(String name) {
+        Ticket t = new Ticket(name);
+        synchronized (this) {
+            pending.add(t);
+            admitReady();
+        }
+        return t;
+    }
+
+    /**
+     * Waits until the given agent may proceed.
+     *
+     * @return
+     *      to be {@link Ticket#release() released} when the agent is online or failed to get there.
+     */
+    public Ticket admit(String name, PrintStream log) throws InterruptedException, IOException {
+        Ticket t = enqueue(name);
+        t.await(log);
+        return t;
+    }
+
+    /**
+     * Admits agents from the head of the line as long as there is room.
+     */
+    @GuardedBy("this")
+    private void admitReady() {
+        long now = System.currentTimeMillis();
+        List<Ticket> ready = new ArrayList<Ticket>();
+        Iterator<Ticket> it = pending.iterator();
+        while (it.hasNext() && hasRoom(now)) {
+            Ticket t = it.next();
+            it.remove();
+            t.admittedAt = now;
+            admitted.add(t);
+            waiting.record(now - t.queuedAt);
+            ready.add(t);
+        }
+        notifyAll();
+        for (Ticket t : ready)
+            t.proceed();
+        if (!pending.isEmpty() && expiryCheck == null) {
+            long delay = untilNextExpiry();
+            if (delay > 0) {
+                expiryCheck = Timer.get().schedule(new Runnable() {
+                    public void run() {
+                        synchronized (AgentAdmission.this) {
+                            expiryCheck = null;
+                            admitReady();
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private boolean hasRoom(long now) {
+        if (MAX_CONCURRENT <= 0)
+            return true;
+        int busy = 0;
+        for (Ticket t : admitted) {
+            if (TIMEOUT <= 0 || now - t.admittedAt < TIMEOUT) {
+                busy++;
+            } else if (!t.expired) {
+                t.expired = true;
+                LOGGER.log(Level.WARNING, "{0} has been connecting for more than {1}ms, letting other agents in",
+                        new Object[] {t.name, TIMEOUT});
+            }
+        }
+        return busy < MAX_CONCURRENT;
+    }
+
+    /**
+     * How long to wait before an admitted agent stops counting against the limit, or 0 if none will.
+     */
+    @GuardedBy("this")
+    private long untilNextExpiry() {
+        if (TIMEOUT <= 0)
+            return 0;
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (Ticket t : admitted) {
+            if (!t.expired)
+                next = Math.min(next, t.admittedAt + TIMEOUT - now);
+        }
+        return next == Long.MAX_VALUE ? 0 : Math.max(1, next);
+    }
+
+    /**
+     * Agents waiting for their turn, oldest first.
+     */
+    public synchronized List<Ticket> getPending() {
+        return new ArrayList<Ticket>(pending);
+    }
+
+    /**
+     * Agents currently being brought online.
+     */
+    public synchronized List<Ticket> getAdmitted() {
+        return new ArrayList<Ticket>(admitted);
+    }
+
+    /**
+     * How long agents had to wait for their turn.
+     */
+    public Statistics getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * How long agents took to get online once admitted.
+     */
+    public Statistics getOnboarding() {
+        return onboarding;
+    }
+
+    /**
+     * An agent waiting for, or going through, the connection.
+     */
+    public final class Ticket {
+        private final String name;
+        private final long queuedAt = System.currentTimeMillis();
+        private volatile long admittedAt;
+        @GuardedBy("AgentAdmission.this")
+        private boolean expired, released;
+        @GuardedBy("AgentAdmission.this")
+        private Executor executor;
+        @GuardedBy("AgentAdmission.this")
+        private Runnable continuation;
+
+        private Ticket(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Milliseconds since the agent started waiting, or since it was admitted.
+         */
+        public long getElapsed() {
+            long since = admittedAt != 0 ? admittedAt : queuedAt;
+            return System.currentTimeMillis() - since;
+        }
+
+        public boolean isAdmitted() {
+            return admittedAt != 0;
+        }
+
+        /**
+         * Waits for the turn of this agent.
+         *
+         * @throws IOException
+         *      if the ticket was {@link #release() released} while waiting, typically because the agent disconnected.
+         */
+        public void await(PrintStream log) throws InterruptedException, IOException {
+            synchronized (AgentAdmission.this) {
+                if (!isAdmitted() && !released) {
+                    log.println("Waiting for " + admitted.size() + " other agents to finish connecting");
+                    LOGGER.log(Level.FINE, "{0} waiting for {1} other agents to finish connecting", new Object[] {name, admitted.size()});
+                }
+                try {
+                    while (!isAdmitted()) {
+                        if (released)
+                            throw new IOException(name + " disconnected while waiting for its turn to connect");
+                        AgentAdmission.this.wait(untilNextExpiry());
+                        admitReady(); // in case someone else's time ran out
+                    }
+                } catch (InterruptedException e) {
+                    release();
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Arranges for the given task to be submitted to the given executor once it's the turn of this agent,
+         * right away if it already is. Nothing runs if the ticket is {@link #release() released} before that.
+         * The task is expected to release the ticket when done.
+         */
+        public void whenAdmitted(PrintStream log, Executor executor, Runnable continuation) {
+            synchronized (AgentAdmission.this) {
+                if (released)
+                    return;
+                this.executor = executor;
+                this.continuation = continuation;
+                if (isAdmitted()) {
+                    proceed();
+                } else {
+                    log.println("Waiting for " + admitted.size() + " other agents to finish connecting");
+                    LOGGER.log(Level.FINE, "{0} waiting for {1} other agents to finish connecting", new Object[] {name, admitted.size()});
+                }
+            }
+        }
+
+        /**
+         * Submits the task given to {@link #whenAdmitted}, if any, now that this agent is admitted.
+         */
+        @GuardedBy("AgentAdmission.this")
+        private void proceed() {
+            Runnable r = continuation;
+            if (r == null)
+                return;
+            continuation = null;
+            try {
+                executor.execute(r);
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.WARNING, "Could not continue connecting " + name, e);
+                release();
+            }
+        }
+
+        /**
+         * Gives up the turn of this agent, or leaves the line if it's still waiting.
+         * Can be called more than once.
+         */
+        public void release() {
+            synchronized (AgentAdmission.this) {
+                if (released)
+                    return;
+                released = true;
+                continuation = null;
+                if (pending.remove(this)) {
+                    AgentAdmission.this.notifyAll();
+                    return;
+                }
+                admitted.remove(this);
+                admitReady();
+            }
+            onboarding.record(System.currentTimeMillis() - admittedAt);
+        }
+    }
+    /**
+     * Durations observed so far.
+     */
+    public static final class Statistics {
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+
+        synchronized void record(long millis) {
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        public synchronized long getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+    /**
+     * Number of agents that can be brought online at the same time; 0 or less for no limit.
+     */
+    public static int MAX_CONCURRENT = SystemProperties.getInteger(AgentAdmission.class.getName() + ".maxConcurrent",
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Milliseconds after which an agent that is still connecting no longer counts against {@link #MAX_CONCURRENT};
+     * 0 or less to wait for it however long it takes.
+     */
+    public static int TIMEOUT = SystemProperties.getInteger(AgentAdmission.class.getName() + ".timeout", 5 * 60 * 1000);
+
+    private static final Logger LOGGER = Logger.getLogger(AgentAdmission.class.getName());
+}
@@ -31,10 +31,16 @@ import hudson.model.Slave;
 import hudson.model.TaskListener;
 import hudson.remoting.Channel;
 import hudson.remoting.PingThread;
+import hudson.remoting.RequestAbortedException;
 import jenkins.security.MasterToSlaveCallable;
 import jenkins.slaves.PingFailureAnalyzer;
+import jenkins.util.Timer;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
@@ -57,6 +63,12 @@ public class ChannelPinger extends ComputerListener {
      */
     private int pingInterval = 5;
 
+    /**
+     * Time in milliseconds after which an unanswered ping means the agent is dead.
+     */
+    private static final long PING_TIMEOUT = TimeUnit.SECONDS.toMillis(
+            SystemProperties.getInteger(ChannelPinger.class.getName() + ".pingTimeoutSeconds", 240));
+
     public ChannelPinger() {
         String interval = SystemProperties.getString(SYS_PROPERTY_NAME);
         if (interval != null) {
@@ -88,7 +100,7 @@ public class ChannelPinger extends ComputerListener {
 
         // set up ping from both directions, so that in case of a router dropping a connection,
         // both sides can notice it and take compensation actions.
-        setUpPingForChannel(channel, pingInterval);
+        new Pinger(channel, TimeUnit.MINUTES.toMillis(pingInterval)).start();
     }
 
     private static class SetUpRemotePing extends MasterToSlaveCallable<Void, IOException> {
@@ -104,23 +116,116 @@ public class ChannelPinger extends ComputerListener {
         }
     }
 
+    /**
+     * Pings the agent from the master.
+     *
+     * <p>
+     * Rather than a {@link PingThread} per agent, all channels are pinged from {@link Timer}, and the wait for
+     * the answer happens on {@link Computer#threadPoolForRemoting}. Channels that carried traffic recently are
+     * evidently alive, so they are not pinged until they have been quiet for a whole interval.
+     * Round trip times are recorded in the {@link RoundTripStatistics} of the channel.
+     */
+    private static final class Pinger implements Runnable {
+        private final Channel channel;
+        private final long interval;
+        private final RoundTripStatistics statistics = new RoundTripStatistics();
+        private volatile boolean closed;
+
+        Pinger(Channel channel, long interval) {
+            this.channel = channel;
+            this.interval = interval;
+        }
+
+        void start() {
+            channel.setProperty(RoundTripStatistics.class, statistics);
+            channel.addListener(new Channel.Listener() {
+                @Override
+                public void onClosed(Channel channel, IOException cause) {
+                    LOGGER.fine("Terminating ping for " + channel.getName());
+                    closed = true;
+                }
+            });
+            schedule(interval);
+            LOGGER.fine("Ping started for " + channel + " with a " + TimeUnit.MILLISECONDS.toMinutes(interval) + " minute interval");
+        }
+
+        private void schedule(long delay) {
+            if (!closed) {
+                Timer.get().schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            long quiet = System.currentTimeMillis() - channel.getLastHeard();
+            if (quiet < interval) {
+                statistics.skip();
+                schedule(interval - quiet);
+                return;
+            }
+
+            // sending can block on a half-open connection, which must not hold up the shared timer
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final long start = System.nanoTime();
+                    try {
+                        Future<Void> f = channel.callAsync(new Ping());
+                        f.get(PING_TIMEOUT, TimeUnit.MILLISECONDS);
+                        statistics.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        schedule(interval);
+                    } catch (IOException e) {
+                        onDead(channel, e, closed);
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof RequestAbortedException) {
+                            return; // connection has shut down orderly.
+                        }
+                        onDead(channel, e, closed);
+                    } catch (TimeoutException e) {
+                        onDead(channel, new TimeoutException("Ping hasn't completed in " + PING_TIMEOUT + "ms"), closed);
+                    } catch (InterruptedException e) {
+                        LOGGER.log(FINE, "Interrupted while waiting for a ping from " + channel.getName(), e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static final class Ping extends MasterToSlaveCallable<Void, IOException> {
+        public Void call() throws IOException {
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static void onDead(Channel channel, Throwable cause, boolean isInClosed) {
+        try {
+            for (PingFailureAnalyzer pfa : PingFailureAnalyzer.all()) {
+                pfa.onPingFailure(channel,cause);
+            }
+            if (isInClosed) {
+                LOGGER.log(FINE,"Ping failed after the channel "+channel.getName()+" is already partially closed.",cause);
+            } else {
+                LOGGER.log(INFO,"Ping failed. Terminating the channel "+channel.getName()+".",cause);
+                channel.close(cause);
+            }
+        } catch (IOException e) {
+            LOGGER.log(SEVERE,"Failed to terminate the channel "+channel.getName(),e);
+        }
+    }
+
+    /**
+     * Sets up the ping from the agent side, where there is only one channel.
+     */
     private static void setUpPingForChannel(final Channel channel, int interval) {
         final AtomicBoolean isInClosed = new AtomicBoolean(false);
         final PingThread t = new PingThread(channel, interval * 60 * 1000) {
             protected void onDead(Throwable cause) {
-                try {
-                    for (PingFailureAnalyzer pfa : PingFailureAnalyzer.all()) {
-                        pfa.onPingFailure(channel,cause);
-                    }
-                    if (isInClosed.get()) {
-                        LOGGER.log(FINE,"Ping failed after the channel "+channel.getName()+" is already partially closed.",cause);
-                    } else {
-                        LOGGER.log(INFO,"Ping failed. Terminating the channel "+channel.getName()+".",cause);
-                        channel.close(cause);
-                    }
-                } catch (IOException e) {
-                    LOGGER.log(SEVERE,"Failed to terminate the channel "+channel.getName(),e);
-                }
+                ChannelPinger.onDead(channel, cause, isInClosed.get());
             }
             protected void onDead() {
                 onDead(null);
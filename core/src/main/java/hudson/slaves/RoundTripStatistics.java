@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.slaves;
+
+import hudson.remoting.Channel;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Round trip times of the pings sent by {@link ChannelPinger} on a channel.
+ *
+ * @since TODO
+ */
+@ExportedBean
+public final class RoundTripStatistics {
+    /**
+     * Upper bounds, in milliseconds, of the buckets of {@link #getHistogram()}; the last bucket has no bound.
+     */
+    private static final long[] BOUNDS = {10, 100, 1000, 10000};
+
+    private final long[] histogram = new long[BOUNDS.length + 1];
+    private long count;
+    private long totalMillis;
+    private long maxMillis;
+    private long lastMillis = -1;
+    private long lastTimestamp;
+    private long skipped;
+
+    synchronized void record(long millis) {
+        int i = 0;
+        while (i < BOUNDS.length && millis >= BOUNDS[i]) {
+            i++;
+        }
+        histogram[i]++;
+        count++;
+        totalMillis += millis;
+        maxMillis = Math.max(maxMillis, millis);
+        lastMillis = millis;
+        lastTimestamp = System.currentTimeMillis();
+    }
+
+    synchronized void skip() {
+        skipped++;
+    }
+
+    /**
+     * Number of pings answered.
+     */
+    @Exported
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Number of pings not sent because the channel was busy, which was proof enough that it's alive.
+     */
+    @Exported
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    @Exported
+    public synchronized long getAverageMillis() {
+        return count == 0 ? 0 : totalMillis / count;
+    }
+
+    @Exported
+    public synchronized long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * Round trip time of the last ping, or -1 if none was answered yet.
+     */
+    @Exported
+    public synchronized long getLastMillis() {
+        return lastMillis;
+    }
+
+    /**
+     * When the last ping was answered, or 0 if none was.
+     */
+    @Exported
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Round trip time of the last ping, if answered within the given number of milliseconds; otherwise -1.
+     */
+    public synchronized long getRecentMillis(long maxAge) {
+        return lastTimestamp != 0 && System.currentTimeMillis() - lastTimestamp <= maxAge ? lastMillis : -1;
+    }
+
+    /**
+     * Number of pings answered in less than 10ms, 100ms, 1s, 10s and more.
+     */
+    @Exported
+    public synchronized long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * Gets the statistics of the given channel, if it's pinged.
+     */
+    public static @CheckForNull RoundTripStatistics of(@CheckForNull Channel channel) {
+        return channel == null ? null : (RoundTripStatistics) channel.getProperty(RoundTripStatistics.class);
+    }
+}
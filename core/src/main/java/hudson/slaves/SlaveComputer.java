@@ -58,6 +58,8 @@ import jenkins.slaves.JnlpSlaveAgentProtocol;
 import jenkins.slaves.systemInfo.SlaveSystemInfo;
 import org.acegisecurity.context.SecurityContext;
 import org.acegisecurity.context.SecurityContextHolder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.HttpRedirect;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.QueryParameter;
@@ -472,11 +474,76 @@ public class SlaveComputer extends Computer {
      * @since 1.444
      */
     public void setChannel(Channel channel, OutputStream launchLog, Channel.Listener listener) throws IOException, InterruptedException {
+        TaskListener taskListener = attach(channel, launchLog, listener);
+        AgentAdmission.Ticket ticket = enqueue(channel);
+        try {
+            ticket.await(taskListener.getLogger());
+            bringOnline(channel, taskListener, ticket);
+        } finally {
+            ticket.release();
+        }
+    }
+
+    /**
+     * Like {@link #setChannel(Channel, OutputStream, Channel.Listener)}, but for callers whose thread must not wait
+     * for the turn of this agent in {@link AgentAdmission}, such as the handlers of {@link jenkins.AgentProtocol}s.
+     * If the agent has to wait, no thread waits with it: the rest of the connection is submitted to
+     * {@link Computer#threadPoolForRemoting} once its turn comes, and failures are only reported to the log of the agent.
+     *
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public void setChannelWithoutWaiting(final Channel channel, OutputStream launchLog, Channel.Listener listener) throws IOException, InterruptedException {
+        final TaskListener taskListener = attach(channel, launchLog, listener);
+        final AgentAdmission.Ticket ticket = enqueue(channel);
+        if (ticket.isAdmitted()) {
+            try {
+                bringOnline(channel, taskListener, ticket);
+            } finally {
+                ticket.release();
+            }
+            return;
+        }
+        ticket.whenAdmitted(taskListener.getLogger(), Computer.threadPoolForRemoting, new Runnable() {
+            public void run() {
+                try {
+                    bringOnline(channel, taskListener, ticket);
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    e.printStackTrace(taskListener.error("Failed to establish the connection with the agent " + nodeName));
+                    try {
+                        channel.close();
+                    } catch (IOException x) {
+                        // ignore
+                    }
+                } finally {
+                    ticket.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Puts the agent in line in {@link AgentAdmission}, leaving the line when the channel goes away.
+     */
+    private AgentAdmission.Ticket enqueue(Channel channel) {
+        final AgentAdmission.Ticket ticket = AgentAdmission.get().enqueue(nodeName);
+        channel.addListener(new Channel.Listener() {
+            @Override
+            public void onClosed(Channel c, IOException cause) {
+                ticket.release();
+            }
+        });
+        return ticket;
+    }
+
+    /**
+     * First half of {@link #setChannel(Channel, OutputStream, Channel.Listener)}, before waiting for {@link AgentAdmission}.
+     */
+    private TaskListener attach(Channel channel, OutputStream launchLog, Channel.Listener listener) {
         if(this.channel!=null)
             throw new IllegalStateException("Already connected");
 
         final TaskListener taskListener = new StreamTaskListener(launchLog);
-        PrintStream log = taskListener.getLogger();
 
         channel.setProperty(SlaveComputer.class, this);
 
@@ -504,6 +571,15 @@ public class SlaveComputer extends Computer {
         });
         if(listener!=null)
             channel.addListener(listener);
+        return taskListener;
+    }
+
+    /**
+     * Second half of {@link #setChannel(Channel, OutputStream, Channel.Listener)}, once admitted by {@link AgentAdmission}.
+     * The ticket is released as soon as the channel is in place, before running {@link ComputerListener#onOnline}.
+     */
+    private void bringOnline(Channel channel, TaskListener taskListener, AgentAdmission.Ticket ticket) throws IOException, InterruptedException {
+        PrintStream log = taskListener.getLogger();
 
         String slaveVersion = channel.call(new SlaveVersion());
         log.println("Slave.jar version: " + slaveVersion);
@@ -567,6 +643,7 @@ public class SlaveComputer extends Computer {
                 statusChangeLock.notifyAll();
             }
         }
+        ticket.release();
         old = ACL.impersonate(ACL.SYSTEM);
         try {
             for (ComputerListener cl : ComputerListener.all()) {
@@ -579,6 +656,14 @@ public class SlaveComputer extends Computer {
         Jenkins.getInstance().getQueue().scheduleMaintenance();
     }
 
+    /**
+     * Round trip times of the pings to this agent, if it's connected.
+     * @since TODO
+     */
+    public @CheckForNull RoundTripStatistics getRoundTripStatistics() {
+        return RoundTripStatistics.of(channel);
+    }
+
     @Override
     public Channel getChannel() {
         return channel;
@@ -23,7 +23,6 @@
  */
 package hudson.tasks;
 
-import com.google.common.collect.Lists;
 import hudson.Extension;
 import hudson.model.Job;
 import hudson.model.Run;
@@ -36,7 +35,8 @@ import java.io.IOException;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.GregorianCalendar;
-import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.*;
@@ -116,62 +116,86 @@ public class LogRotator extends BuildDiscarder {
         Run lsb = job.getLastSuccessfulBuild();
         Run lstb = job.getLastStableBuild();
 
+        // decide on everything first, then delete in one go
+        Set<Run> toDelete = new LinkedHashSet<Run>();
+        Set<Run> toPurge = new LinkedHashSet<Run>();
+
         if(numToKeep!=-1) {
-            // Note that RunList.size is deprecated, and indeed here we are loading all the builds of the job.
-            // However we would need to load the first numToKeep anyway, just to skip over them;
-            // and we would need to load the rest anyway, to delete them.
+            // Walks back from the newest build rather than going through the whole list of builds:
+            // older builds have to be loaded anyway to be deleted, and those that are kept are usually few.
             // (Using RunMap.headMap would not suffice, since we do not know if some recent builds have been deleted for other reasons,
             // so simply subtracting numToKeep from the currently last build number might cause us to delete too many.)
-            List<? extends Run<?,?>> builds = job.getBuilds();
-            for (Run r : copy(builds.subList(Math.min(builds.size(), numToKeep), builds.size()))) {
-                if (shouldKeepRun(r, lsb, lstb)) {
-                    continue;
-                }
-                LOGGER.log(FINE, "{0} is to be removed", r);
-                r.delete();
-            }
+            collectOlderThan(job, numToKeep, lsb, lstb, toDelete);
         }
 
         if(daysToKeep!=-1) {
-            Calendar cal = new GregorianCalendar();
-            cal.add(Calendar.DAY_OF_YEAR,-daysToKeep);
-            Run r = job.getFirstBuild();
-            while (r != null) {
-                if (tooNew(r, cal)) {
-                    break;
-                }
-                if (!shouldKeepRun(r, lsb, lstb)) {
-                    LOGGER.log(FINE, "{0} is to be removed", r);
-                    r.delete();
-                }
-                r = r.getNextBuild();
-            }
+            collectTooOld(job, daysToKeep, lsb, lstb, toDelete);
         }
 
         if(artifactNumToKeep!=null && artifactNumToKeep!=-1) {
-            List<? extends Run<?,?>> builds = job.getBuilds();
-            for (Run r : copy(builds.subList(Math.min(builds.size(), artifactNumToKeep), builds.size()))) {
-                if (shouldKeepRun(r, lsb, lstb)) {
-                    continue;
-                }
-                LOGGER.log(FINE, "{0} is to be purged of artifacts", r);
-                r.deleteArtifacts();
-            }
+            collectOlderThan(job, artifactNumToKeep, lsb, lstb, toPurge);
         }
 
         if(artifactDaysToKeep!=null && artifactDaysToKeep!=-1) {
-            Calendar cal = new GregorianCalendar();
-            cal.add(Calendar.DAY_OF_YEAR,-artifactDaysToKeep);
-            Run r = job.getFirstBuild();
-            while (r != null) {
-                if (tooNew(r, cal)) {
-                    break;
+            collectTooOld(job, artifactDaysToKeep, lsb, lstb, toPurge);
+        }
+        toPurge.removeAll(toDelete);
+
+        IOException failure = null;
+        for (Run r : toDelete) {
+            LOGGER.log(FINE, "{0} is to be removed", r);
+            try {
+                r.delete();
+            } catch (IOException e) {
+                LOGGER.log(WARNING, "Failed to delete " + r, e);
+                if (failure == null) {
+                    failure = e;
                 }
-                if (!shouldKeepRun(r, lsb, lstb)) {
-                    LOGGER.log(FINE, "{0} is to be purged of artifacts", r);
-                    r.deleteArtifacts();
+            }
+        }
+        for (Run r : toPurge) {
+            LOGGER.log(FINE, "{0} is to be purged of artifacts", r);
+            try {
+                r.deleteArtifacts();
+            } catch (IOException e) {
+                LOGGER.log(WARNING, "Failed to delete the artifacts of " + r, e);
+                if (failure == null) {
+                    failure = e;
                 }
-                r = r.getNextBuild();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Collects the builds beyond the given number of most recent ones.
+     */
+    @SuppressWarnings("rawtypes")
+    private void collectOlderThan(Job<?,?> job, int num, Run lsb, Run lstb, Collection<Run> result) {
+        int i = 0;
+        for (Run r = job.getLastBuild(); r != null; r = r.getPreviousBuild()) {
+            if (i++ < num || result.contains(r) || shouldKeepRun(r, lsb, lstb)) {
+                continue;
+            }
+            result.add(r);
+        }
+    }
+
+    /**
+     * Collects the builds older than the given number of days.
+     */
+    @SuppressWarnings("rawtypes")
+    private void collectTooOld(Job<?,?> job, int days, Run lsb, Run lstb, Collection<Run> result) {
+        Calendar cal = new GregorianCalendar();
+        cal.add(Calendar.DAY_OF_YEAR,-days);
+        for (Run r = job.getFirstBuild(); r != null; r = r.getNextBuild()) {
+            if (tooNew(r, cal)) {
+                break;
+            }
+            if (!result.contains(r) && !shouldKeepRun(r, lsb, lstb)) {
+                result.add(r);
             }
         }
     }
@@ -205,13 +229,6 @@ public class LogRotator extends BuildDiscarder {
         }
     }
 
-    /**
-     * Creates a copy since we'll be deleting some entries from them.
-     */
-    private <R> Collection<R> copy(Iterable<R> src) {
-        return Lists.newArrayList(src);
-    }
-
     public int getDaysToKeep() {
         return daysToKeep;
     }
@@ -24,14 +24,27 @@
 package hudson.util;
 
 import hudson.Util;
+import jenkins.util.SystemProperties;
+
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Buffered {@link FileWriter} that supports atomic operations.
@@ -40,13 +53,42 @@ import java.nio.charset.Charset;
  * The write operation is atomic when used for overwriting;
  * it either leaves the original file intact, or it completely rewrites it with new contents.
  *
+ * <p>
+ * Whether the new contents survive a power loss right after {@link #commit()} depends on the {@link Durability}.
+ *
  * @author Kohsuke Kawaguchi
  */
 public class AtomicFileWriter extends Writer {
 
+    /**
+     * How hard {@link AtomicFileWriter#commit()} tries to make the new contents durable.
+     *
+     * @since 2.6
+     */
+    public enum Durability {
+        /**
+         * Leave it to the OS to flush the data eventually. This is the traditional behavior,
+         * and is appropriate for derived or cache files that can be recomputed.
+         */
+        RELAXED,
+        /**
+         * The file is synced before it is renamed, and the rename is made durable by syncing
+         * the directory. Commits that arrive while a directory sync is in progress are synced
+         * together right after it, so a burst of saves costs far fewer flushes, without ever
+         * waiting for more commits to show up.
+         */
+        GROUP_COMMIT,
+        /**
+         * The file and the directory are synced on every commit.
+         */
+        SYNC
+    }
+
     private final Writer core;
+    private final FileOutputStream out;
     private final File tmpFile;
     private final File destFile;
+    private final Durability durability;
 
     /**
      * Writes with UTF-8 encoding.
@@ -60,6 +102,18 @@ public class AtomicFileWriter extends Writer {
      *      File encoding to write. If null, platform default encoding is chosen.
      */
     public AtomicFileWriter(File f, String encoding) throws IOException {
+        this(f,encoding,DURABILITY);
+    }
+
+    /**
+     * @param encoding
+     *      File encoding to write. If null, platform default encoding is chosen.
+     * @param durability
+     *      Overrides the system-wide default {@link #DURABILITY}, for example to use
+     *      {@link Durability#RELAXED} for a cache file.
+     * @since 2.6
+     */
+    public AtomicFileWriter(File f, String encoding, Durability durability) throws IOException {
         File dir = f.getParentFile();
         try {
             dir.mkdirs();
@@ -68,9 +122,11 @@ public class AtomicFileWriter extends Writer {
             throw new IOException("Failed to create a temporary file in "+ dir,e);
         }
         destFile = f;
+        this.durability = durability;
         if (encoding==null)
             encoding = Charset.defaultCharset().name();
-        core = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile),encoding));
+        out = new FileOutputStream(tmpFile);
+        core = new BufferedWriter(new OutputStreamWriter(out,encoding));
     }
 
     @Override
@@ -107,6 +163,11 @@ public class AtomicFileWriter extends Writer {
     }
 
     public void commit() throws IOException {
+        long start = System.nanoTime();
+        if (durability!=Durability.RELAXED) {
+            core.flush();
+            out.getFD().sync();
+        }
         close();
         if (destFile.exists()) {
             try {
@@ -117,6 +178,15 @@ public class AtomicFileWriter extends Writer {
             }
         }
         tmpFile.renameTo(destFile);
+        switch (durability) {
+        case GROUP_COMMIT:
+            GroupCommit.sync(destFile.getParentFile());
+            break;
+        case SYNC:
+            syncDirectory(destFile.getParentFile());
+            break;
+        }
+        recordLatency(System.nanoTime()-start);
     }
 
     @Override
@@ -133,4 +203,116 @@ public class AtomicFileWriter extends Writer {
     public File getTemporaryFile() {
         return tmpFile;
     }
+
+    /**
+     * Makes the directory entries of the given directory durable.
+     * Not all platforms support this (notably Windows), in which case it is a no-op.
+     */
+    private static void syncDirectory(File dir) {
+        try {
+            FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                ch.force(true);
+            } finally {
+                ch.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to sync "+dir, e);
+        }
+    }
+
+    /**
+     * A batch of directories to be synced together.
+     * The batch fills up while the previous one is being synced; then the first of its committers to get
+     * the turn syncs every directory in it, and releases the others.
+     */
+    private static final class GroupCommit {
+        /**
+         * The batch being filled, and whether a batch is being synced. Guarded by {@code GroupCommit.class}.
+         */
+        private static GroupCommit next;
+        private static boolean syncing;
+
+        private final Set<File> dirs = new HashSet<File>();
+        private boolean done;
+
+        static void sync(File dir) throws IOException {
+            GroupCommit g;
+            synchronized (GroupCommit.class) {
+                if (next==null)
+                    next = new GroupCommit();
+                g = next;
+                g.dirs.add(dir);
+                while (syncing && !g.done) {
+                    try {
+                        GroupCommit.class.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw (InterruptedIOException)new InterruptedIOException("Interrupted while waiting for "+dir+" to be synced").initCause(e);
+                    }
+                }
+                if (g.done)
+                    return; // someone else synced it for us
+                // our turn: nobody can join this batch anymore
+                syncing = true;
+                next = null;
+            }
+            try {
+                for (File d : g.dirs)
+                    syncDirectory(d);
+            } finally {
+                synchronized (GroupCommit.class) {
+                    g.done = true;
+                    syncing = false;
+                    GroupCommit.class.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Bucket i counts commits that took less than 2^i microseconds; the last bucket counts everything slower.
+     */
+    private static final AtomicLongArray LATENCY = new AtomicLongArray(24);
+
+    private static void recordLatency(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = 64-Long.numberOfLeadingZeros(micros);
+        LATENCY.incrementAndGet(Math.min(bucket, LATENCY.length()-1));
+    }
+
+    /**
+     * Histogram of {@link #commit()} latency, including any syncs.
+     * Element i is the number of commits that took less than 2^i microseconds (and at least 2^(i-1)),
+     * except for the last element which counts all slower commits.
+     *
+     * @since 2.6
+     */
+    public static long[] getCommitLatencyHistogram() {
+        long[] r = new long[LATENCY.length()];
+        for (int i=0; i<r.length; i++)
+            r[i] = LATENCY.get(i);
+        return r;
+    }
+
+    // before DURABILITY, which may log
+    private static final Logger LOGGER = Logger.getLogger(AtomicFileWriter.class.getName());
+
+    /**
+     * Default {@link Durability} of writers that don't specify one.
+     */
+    public static Durability DURABILITY = durability();
+
+    private static Durability durability() {
+        String name = SystemProperties.getString(AtomicFileWriter.class.getName()+".durability");
+        if (name==null)
+            return Durability.RELAXED;
+        try {
+            return Durability.valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Unknown durability {0}, expected one of {1}; using RELAXED",
+                    new Object[] {name, Arrays.toString(Durability.values())});
+            return Durability.RELAXED;
+        }
+    }
 }
@@ -46,6 +46,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -53,7 +54,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -274,7 +274,7 @@ public abstract class ProcessTree implements Iterable<OSProcess>, IProcessTree,
                 // sanity check so that we don't start rampage.
                 return false;
 
-            SortedMap<String,String> envs = getEnvironmentVariables();
+            Map<String,String> envs = getEnvironmentVariables(modelEnvVar.keySet());
             for (Entry<String,String> e : modelEnvVar.entrySet()) {
                 String v = envs.get(e.getKey());
                 if(v==null || !v.equals(e.getValue()))
@@ -284,6 +284,22 @@ public abstract class ProcessTree implements Iterable<OSProcess>, IProcessTree,
             return true;
         }
 
+        /**
+         * Looks up some of the environment variables of this process, for implementations
+         * that can do so more cheaply than {@link #getEnvironmentVariables()}.
+         *
+         * @return
+         *      the value of each of the given variables, or null if not set.
+         */
+        /*package*/ Map<String,String> getEnvironmentVariables(Collection<String> names) {
+            EnvVars all = getEnvironmentVariables();
+            Map<String,String> r = new HashMap<String,String>();
+            for (String name : names) {
+                r.put(name, all.get(name));
+            }
+            return r;
+        }
+
         /**
          * Executes a chunk of code at the same machine where this process resides.
          */
@@ -518,14 +534,24 @@ public abstract class ProcessTree implements Iterable<OSProcess>, IProcessTree,
      * {@link ProcessTree} based on /proc.
      */
     static abstract class ProcfsUnix extends Unix {
+        /**
+         * Where procfs is mounted.
+         */
+        final File procfs;
+
         ProcfsUnix() {
-            File[] processes = new File("/proc").listFiles(new FileFilter() {
+            this(new File("/proc"));
+        }
+
+        ProcfsUnix(File procfs) {
+            this.procfs = procfs;
+            File[] processes = procfs.listFiles(new FileFilter() {
                 public boolean accept(File f) {
                     return f.isDirectory();
                 }
             });
             if(processes==null) {
-                LOGGER.info("No /proc");
+                LOGGER.info("No "+procfs);
                 return;
             }
 
@@ -557,7 +583,9 @@ public abstract class ProcessTree implements Iterable<OSProcess>, IProcessTree,
         }
 
         protected final File getFile(String relativePath) {
-            return new File(new File("/proc/"+getPid()),relativePath);
+            ProcessTree tree = getTree();
+            File procfs = tree instanceof ProcfsUnix ? ((ProcfsUnix) tree).procfs : new File("/proc");
+            return new File(new File(procfs,String.valueOf(getPid())),relativePath);
         }
 
         /**
@@ -662,33 +690,54 @@ public abstract class ProcessTree implements Iterable<OSProcess>, IProcessTree,
 
 
     static class Linux extends ProcfsUnix {
+        Linux() {
+            super();
+        }
+
+        Linux(File procfs) {
+            super(procfs);
+        }
+
         protected LinuxProcess createProcess(int pid) throws IOException {
             return new LinuxProcess(pid);
         }
 
         class LinuxProcess extends UnixProcess {
-            private int ppid = -1;
+            private final int ppid;
             private EnvVars envVars;
             private List<String> arguments;
 
             LinuxProcess(int pid) throws IOException {
                 super(pid);
 
-                BufferedReader r = new BufferedReader(new FileReader(getFile("status")));
+                // parsed from /proc/<pid>/stat rather than status, as it's shorter
+                String stat = new String(readFileToByteArray(getFile("stat")), "ISO-8859-1");
+                // the command name comes in parentheses after the PID, and can itself contain anything
+                int i = stat.lastIndexOf(')');
+                if (i < 0)
+                    throw new IOException("Failed to parse /proc/"+pid+"/stat");
+                // fields are counted from the state, the first one after the command name
+                int ppid = -1;
                 try {
-                    String line;
-                    while((line=r.readLine())!=null) {
-                        line=line.toLowerCase(Locale.ENGLISH);
-                        if(line.startsWith("ppid:")) {
-                            ppid = Integer.parseInt(line.substring(5).trim());
+                    int field = -1;
+                    while (i < stat.length() && ppid == -1) {
+                        int start = stat.indexOf(' ', i) + 1;
+                        if (start == 0)
                             break;
-                        }
+                        int end = stat.indexOf(' ', start);
+                        if (end < 0)
+                            end = stat.length();
+                        field++;
+                        if (field == 1)
+                            ppid = Integer.parseInt(stat.substring(start, end).trim());
+                        i = end;
                     }
-                } finally {
-                    r.close();
+                } catch (NumberFormatException e) {
+                    throw new IOException("Failed to parse /proc/"+pid+"/stat", e);
                 }
                 if(ppid==-1)
-                    throw new IOException("Failed to parse PPID from /proc/"+pid+"/status");
+                    throw new IOException("Failed to parse PPID from /proc/"+pid+"/stat");
+                this.ppid = ppid;
             }
 
             public OSProcess getParent() {
@@ -737,6 +786,39 @@ public abstract class ProcessTree implements Iterable<OSProcess>, IProcessTree,
                 }
                 return envVars;
             }
+
+            /**
+             * Scans /proc/<pid>/environ for just the variables asked for, without building a full {@link EnvVars}.
+             * Nothing is kept across snapshots, since the environment changes when the process calls exec.
+             */
+            @Override
+            synchronized Map<String,String> getEnvironmentVariables(Collection<String> names) {
+                if (envVars != null)
+                    return super.getEnvironmentVariables(names);
+                Map<String,String> r = new HashMap<String,String>();
+                for (String name : names)
+                    r.put(name, null);
+                try {
+                    String environ = new String(readFileToByteArray(getFile("environ")));
+                    int pos=0;
+                    while (pos < environ.length()) {
+                        int end = environ.indexOf('\0', pos);
+                        if (end < 0)
+                            break;
+                        for (String name : names) {
+                            // same as EnvVars: names are case insensitive and the last one wins
+                            int sep = pos + name.length();
+                            if (sep < end && environ.charAt(sep) == '=' && environ.regionMatches(true, pos, name, 0, name.length()))
+                                r.put(name, environ.substring(sep + 1, end));
+                        }
+                        pos=end+1;
+                    }
+                } catch (IOException e) {
+                    // failed to read. this can happen under normal circumstances (most notably permission denied)
+                    // so don't report this as an error.
+                }
+                return r;
+            }
         }
 
         public byte[] readFileToByteArray(File file) throws IOException {
@@ -0,0 +1,398 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.util.io;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file to a stream, one entry after another, without ever holding a whole entry in memory or on disk.
+ *
+ * <p>
+ * Unlike {@link org.apache.tools.zip.ZipOutputStream}, entries can be {@linkplain #writeUncompressed copied}
+ * as is, which is what you want for content that is already compressed, and large entries can be
+ * {@linkplain #writeDeflated deflated} by several threads at once: the content is cut into chunks that are
+ * compressed independently (each primed with the end of the previous chunk as dictionary) and the results
+ * are concatenated in order, the same way <tt>pigz</tt> does.
+ * Zip64 extensions are used as needed, so entries and archives can exceed 4GB.
+ *
+ * @since 2.6
+ */
+@Restricted(NoExternalUse.class)
+public final class ZipStreamWriter implements Closeable {
+    private final OutputStream out;
+    private final boolean utf8;
+    private final Charset encoding;
+    private final int level;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private long written;
+    private boolean closed;
+
+    /**
+     * @param encoding encoding of entry names
+     * @param level the {@link Deflater} compression level for deflated entries
+     */
+    public ZipStreamWriter(OutputStream out, Charset encoding, int level) {
+        this.out = out;
+        this.encoding = encoding;
+        this.utf8 = encoding.name().equals("UTF-8");
+        this.level = level;
+    }
+
+    /**
+     * Adds an entry whose content is copied as is, which is what you want for content that is already compressed.
+     *
+     * <p>
+     * The content goes into deflate blocks of the <em>stored</em> kind, which cost 5 bytes every 64KB,
+     * rather than into a zip entry of the {@code STORED} method: the latter needs its CRC-32 in the header,
+     * so the content would have to be read twice, and could change in between.
+     *
+     * @param length the expected length of the content, or -1 if unknown
+     */
+    public void writeUncompressed(String name, long time, long length, InputStream in) throws IOException {
+        try {
+            write(name, time, length, in, null, Deflater.NO_COMPRESSION);
+        } catch (InterruptedException x) {
+            // cannot happen without a pool
+            throw new AssertionError(x);
+        }
+    }
+
+    /**
+     * Adds a compressed entry.
+     *
+     * @param length the expected length of the content, or -1 if unknown; zip64 extensions are used
+     *               if it is unknown or close to 4GB, otherwise the content must not grow past 4GB
+     * @param pool if not null, chunks of the content are compressed concurrently on this pool
+     */
+    public void writeDeflated(String name, long time, long length, InputStream in, @CheckForNull ExecutorService pool) throws IOException, InterruptedException {
+        write(name, time, length, in, pool, level);
+    }
+
+    private void write(String name, long time, long length, InputStream in, @CheckForNull ExecutorService pool, int level) throws IOException, InterruptedException {
+        Entry e = new Entry(name, time, DEFLATED, FLAG_DATA_DESCRIPTOR);
+        // sizes only come after the data, so decide up front, leaving room for deflate overhead
+        e.zip64 = length < 0 || length + (length >> 6) + CHUNK >= ZIP64_MAGIC;
+        writeLocalHeader(e);
+        long start = written;
+        CRC32 crc = new CRC32();
+        Deque<Future<byte[]>> inflight = new ArrayDeque<Future<byte[]>>();
+        byte[] dictionary = null;
+        try {
+            byte[] buf;
+            int n;
+            while ((n = readFully(in, buf = new byte[CHUNK])) > 0) {
+                crc.update(buf, 0, n);
+                e.size += n;
+                Chunk c = new Chunk(buf, n, dictionary, level);
+                if (pool == null) {
+                    byte[] b = c.call();
+                    write(b, 0, b.length);
+                } else {
+                    inflight.add(pool.submit(c));
+                    // keeps a bounded number of chunks in memory
+                    if (inflight.size() > WINDOW)
+                        writeChunk(inflight.remove());
+                }
+                dictionary = n >= DICTIONARY ? Arrays.copyOfRange(buf, n - DICTIONARY, n) : null;
+                if (n < CHUNK)
+                    break;
+            }
+            while (!inflight.isEmpty())
+                writeChunk(inflight.remove());
+        } finally {
+            for (Future<byte[]> f : inflight)
+                f.cancel(true);
+        }
+        // every chunk ends with a sync flush, so terminate the stream with an empty final block
+        Deflater d = new Deflater(level, true);
+        try {
+            d.finish();
+            byte[] tail = new byte[16];
+            int len = d.deflate(tail);
+            write(tail, 0, len);
+        } finally {
+            d.end();
+        }
+        e.crc = crc.getValue();
+        e.csize = written - start;
+
+        if (e.isZip64() && !e.zip64)
+            throw new IOException(name + " grew past 4GB while being written; expected " + length + " bytes");
+        writeInt(0x08074b50L);
+        writeInt(e.crc);
+        // APPNOTE 4.3.9.2: 8 byte sizes if and only if the local header has a zip64 extra field
+        if (e.zip64) {
+            writeLong(e.csize);
+            writeLong(e.size);
+        } else {
+            writeInt(e.csize);
+            writeInt(e.size);
+        }
+    }
+
+    private void writeChunk(Future<byte[]> f) throws IOException, InterruptedException {
+        try {
+            byte[] b = f.get();
+            write(b, 0, b.length);
+        } catch (ExecutionException x) {
+            throw new IOException(x.getCause());
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buf) throws IOException {
+        int total = 0;
+        while (total < buf.length) {
+            int n = in.read(buf, total, buf.length - total);
+            if (n < 0)
+                break;
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Compresses one chunk of an entry into a series of non-final deflate blocks ending on a byte boundary.
+     */
+    private static final class Chunk implements Callable<byte[]> {
+        private final byte[] data;
+        private final int len;
+        private final byte[] dictionary;
+        private final int level;
+
+        Chunk(byte[] data, int len, byte[] dictionary, int level) {
+            this.data = data;
+            this.len = len;
+            this.dictionary = dictionary;
+            this.level = level;
+        }
+
+        public byte[] call() {
+            Deflater d = new Deflater(level, true);
+            try {
+                if (dictionary != null)
+                    d.setDictionary(dictionary);
+                d.setInput(data, 0, len);
+                byte[] buf = new byte[len + len / 8 + 64];
+                int total = 0;
+                while (true) {
+                    total += d.deflate(buf, total, buf.length - total, Deflater.SYNC_FLUSH);
+                    if (total < buf.length)
+                        break;
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                return Arrays.copyOf(buf, total);
+            } finally {
+                d.end();
+            }
+        }
+    }
+
+    private void writeLocalHeader(Entry e) throws IOException {
+        e.offset = written;
+        entries.add(e);
+        byte[] name = e.name.getBytes(encoding);
+
+        writeInt(0x04034b50L);
+        writeShort(e.zip64 ? 45 : 20);
+        writeShort(e.flags | (utf8 ? FLAG_UTF8 : 0));
+        writeShort(e.method);
+        writeInt(e.dosTime);
+        // CRC and sizes follow the data
+        writeInt(0);
+        writeInt(e.zip64 ? ZIP64_MAGIC : 0);
+        writeInt(e.zip64 ? ZIP64_MAGIC : 0);
+        writeShort(name.length);
+        writeShort(e.zip64 ? 20 : 0);
+        write(name, 0, name.length);
+        if (e.zip64) {
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(0);
+            writeLong(0);
+        }
+    }
+
+    /**
+     * Writes the central directory. The underlying stream is flushed but not closed.
+     */
+    public void close() throws IOException {
+        if (closed)     return;
+        closed = true;
+
+        long cdStart = written;
+        for (Entry e : entries) {
+            boolean zip64 = e.isZip64() || e.offset >= ZIP64_MAGIC;
+            byte[] name = e.name.getBytes(encoding);
+            writeInt(0x02014b50L);
+            writeShort(zip64 ? 45 : 20);    // made by
+            writeShort(zip64 ? 45 : 20);    // needed to extract
+            writeShort(e.flags | (utf8 ? FLAG_UTF8 : 0));
+            writeShort(e.method);
+            writeInt(e.dosTime);
+            writeInt(e.crc);
+            writeInt(zip64 ? ZIP64_MAGIC : e.csize);
+            writeInt(zip64 ? ZIP64_MAGIC : e.size);
+            writeShort(name.length);
+            writeShort(zip64 ? 28 : 0);
+            writeShort(0);  // comment
+            writeShort(0);  // disk
+            writeShort(0);  // internal attributes
+            writeInt(0);    // external attributes
+            writeInt(zip64 ? ZIP64_MAGIC : e.offset);
+            write(name, 0, name.length);
+            if (zip64) {
+                writeShort(0x0001);
+                writeShort(24);
+                writeLong(e.size);
+                writeLong(e.csize);
+                writeLong(e.offset);
+            }
+        }
+        long cdEnd = written;
+        long cdSize = cdEnd - cdStart;
+
+        boolean zip64 = entries.size() >= 0xFFFF || cdStart >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC;
+        if (zip64) {
+            writeInt(0x06064b50L);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entries.size());
+            writeLong(entries.size());
+            writeLong(cdSize);
+            writeLong(cdStart);
+
+            writeInt(0x07064b50L);
+            writeInt(0);
+            writeLong(cdEnd);
+            writeInt(1);
+        }
+        writeInt(0x06054b50L);
+        writeShort(0);
+        writeShort(0);
+        writeShort(zip64 ? 0xFFFF : entries.size());
+        writeShort(zip64 ? 0xFFFF : entries.size());
+        writeInt(zip64 ? ZIP64_MAGIC : cdSize);
+        writeInt(zip64 ? ZIP64_MAGIC : cdStart);
+        writeShort(0);
+        out.flush();
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+        written += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xFFFF));
+        writeShort((int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & 0xFFFFFFFFL);
+        writeInt(v >>> 32);
+    }
+
+    private static final class Entry {
+        final String name;
+        final long dosTime;
+        final int method;
+        final int flags;
+        long crc, size, csize, offset;
+        /**
+         * Whether the local header has a zip64 extra field, and so the data descriptor 8 byte sizes.
+         */
+        boolean zip64;
+
+        Entry(String name, long time, int method, int flags) {
+            this.name = name;
+            this.dosTime = toDosTime(time);
+            this.method = method;
+            this.flags = flags;
+        }
+
+        boolean isZip64() {
+            return size >= ZIP64_MAGIC || csize >= ZIP64_MAGIC;
+        }
+    }
+
+    /**
+     * Converts to the MS-DOS date and time format used by zip, in the local time zone.
+     */
+    static long toDosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);   // 1980-01-01 00:00
+        return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21) | (c.get(Calendar.DAY_OF_MONTH) << 16)
+                | (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    private static final int DEFLATED = 8;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    /**
+     * Size of the pieces compressed independently.
+     */
+    private static final int CHUNK = 1024 * 1024;
+    /**
+     * Deflate looks back at most this far, so that's all a chunk needs from the previous one.
+     */
+    private static final int DICTIONARY = 32 * 1024;
+    /**
+     * Maximum number of chunks being compressed at once for one entry.
+     */
+    private static final int WINDOW = Runtime.getRuntime().availableProcessors() * 2;
+}
@@ -34,9 +34,26 @@ public abstract class AgentProtocol implements ExtensionPoint {
 
     /**
      * Called by the connection handling thread to execute the protocol.
+     *
+     * @see #isHandshakeOnly()
      */
     public abstract void handle(Socket socket) throws IOException, InterruptedException;
 
+    /**
+     * Whether {@link #handle(Socket)} returns as soon as the connection is established,
+     * rather than keeping the calling thread until the connection ends.
+     *
+     * <p>
+     * Protocols that say so share a bounded pool of threads, which keeps thousands of agents
+     * reconnecting at once from starting thousands of threads. Others get a thread of their own,
+     * so they can keep blocking for as long as the connection lasts.
+     *
+     * @since TODO
+     */
+    public boolean isHandshakeOnly() {
+        return false;
+    }
+
     /**
      * Returns all the registered {@link AgentProtocol}s.
      */
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.diagnostics;
+
+import hudson.init.InitMilestone;
+import hudson.model.Item;
+import hudson.model.Items;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects timing information while the init reactor runs, and writes it out as a text report
+ * so that administrators can see what dominates the startup of their instance.
+ *
+ * <p>
+ * The report has the time at which each {@link InitMilestone} was attained, the slowest reactor tasks,
+ * the time spent loading items broken down by type, and the slowest items. Item load time is split
+ * between reading {@code config.xml} from disk, unmarshalling it with XStream, and {@link Item#onLoad}
+ * (which loads build records, children of item groups, and so on).
+ *
+ * @since 2.6
+ */
+@Restricted(NoExternalUse.class)
+public final class StartupProfile {
+
+    /**
+     * Profile being collected, if any.
+     */
+    private static volatile StartupProfile current;
+
+    private final long start = System.nanoTime();
+    private final Map<InitMilestone,Long> milestones = new LinkedHashMap<InitMilestone,Long>();
+    private final Map<String,TypeStats> types = new TreeMap<String,TypeStats>();
+    private final PriorityQueue<Timing> slowestItems = new PriorityQueue<Timing>(TOP+1, Timing.BY_TOTAL);
+    private final PriorityQueue<Timing> slowestTasks = new PriorityQueue<Timing>(TOP+1, Timing.BY_TOTAL);
+
+    /**
+     * Starts collecting a new profile.
+     */
+    public static StartupProfile start() {
+        StartupProfile p = new StartupProfile();
+        current = p;
+        return p;
+    }
+
+    public static @CheckForNull StartupProfile get() {
+        return current;
+    }
+
+    /**
+     * Time this thread has spent in streams wrapped by {@link #timeReads}.
+     */
+    private static final ThreadLocal<long[]> IO_NANOS = new ThreadLocal<long[]>() {
+        @Override protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /**
+     * Wraps a file stream so that the time spent reading from it counts as I/O of the item this thread is loading.
+     * Returns the stream as is when no profile is being collected.
+     */
+    public static InputStream timeReads(InputStream in) {
+        if (current==null)  return in;
+        return new FilterInputStream(in) {
+            @Override public int read() throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return super.read();
+                } finally {
+                    IO_NANOS.get()[0] += System.nanoTime()-start;
+                }
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return super.read(b, off, len);
+                } finally {
+                    IO_NANOS.get()[0] += System.nanoTime()-start;
+                }
+            }
+        };
+    }
+
+    /**
+     * Total time this thread has spent reading streams wrapped by {@link #timeReads}.
+     */
+    public static long ioNanos() {
+        return IO_NANOS.get()[0];
+    }
+
+    /**
+     * Records the time spent by {@link Items#load}.
+     *
+     * @param ioNanos time spent reading {@code config.xml} from disk
+     * @param unmarshalNanos time spent unmarshalling it, excluding {@code ioNanos}
+     */
+    public static void recordItem(Item item, long ioNanos, long unmarshalNanos, long onLoadNanos) {
+        StartupProfile p = current;
+        if (p==null)    return;
+        String type = item.getClass().getName();
+        synchronized (p) {
+            TypeStats s = p.types.get(type);
+            if (s==null)
+                p.types.put(type, s = new TypeStats());
+            s.count++;
+            s.ioNanos += ioNanos;
+            s.unmarshalNanos += unmarshalNanos;
+            s.onLoadNanos += onLoadNanos;
+            offer(p.slowestItems, new Timing(item.getFullName()+" ("+type+")", ioNanos, unmarshalNanos, onLoadNanos));
+        }
+    }
+
+    public synchronized void onTaskCompleted(String name, long nanos) {
+        offer(slowestTasks, new Timing(name, 0, nanos, 0));
+    }
+
+    public synchronized void onAttained(InitMilestone milestone) {
+        milestones.put(milestone, System.nanoTime()-start);
+    }
+
+    private static void offer(PriorityQueue<Timing> q, Timing t) {
+        q.add(t);
+        if (q.size()>TOP)
+            q.poll(); // drop the fastest
+    }
+
+    /**
+     * Stops collecting and writes the report.
+     */
+    public void writeTo(File report) throws IOException {
+        if (current==this)
+            current = null;
+        report.getParentFile().mkdirs();
+        PrintWriter w = new PrintWriter(report, "UTF-8");
+        try {
+            synchronized (this) {
+                w.printf("Startup profile of %s%n", new Date());
+                w.printf("Total: %d ms%n%n", ms(System.nanoTime()-start));
+
+                w.println("Milestones (ms since start):");
+                for (Map.Entry<InitMilestone,Long> e : milestones.entrySet())
+                    w.printf("  %8d  %s%n", ms(e.getValue()), e.getKey());
+
+                w.printf("%nSlowest tasks (ms):%n");
+                for (Timing t : sorted(slowestTasks))
+                    w.printf("  %8d  %s%n", ms(t.total()), t.name);
+
+                w.printf("%nItems by type (ms): count, total, config.xml I/O, XStream, onLoad%n");
+                for (Map.Entry<String,TypeStats> e : types.entrySet()) {
+                    TypeStats s = e.getValue();
+                    w.printf("  %6d  %8d  %8d  %8d  %8d  %s%n", s.count, ms(s.ioNanos+s.unmarshalNanos+s.onLoadNanos),
+                            ms(s.ioNanos), ms(s.unmarshalNanos), ms(s.onLoadNanos), e.getKey());
+                }
+
+                w.printf("%nSlowest items (ms): total, config.xml I/O, XStream, onLoad%n");
+                for (Timing t : sorted(slowestItems))
+                    w.printf("  %8d  %8d  %8d  %8d  %s%n", ms(t.total()), ms(t.ioNanos), ms(t.unmarshalNanos), ms(t.onLoadNanos), t.name);
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private static List<Timing> sorted(PriorityQueue<Timing> q) {
+        List<Timing> r = new ArrayList<Timing>(q);
+        Collections.sort(r, Collections.reverseOrder(Timing.BY_TOTAL));
+        return r;
+    }
+
+    private static long ms(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static final class TypeStats {
+        int count;
+        long ioNanos, unmarshalNanos, onLoadNanos;
+    }
+
+    private static final class Timing {
+        final String name;
+        final long ioNanos, unmarshalNanos, onLoadNanos;
+
+        Timing(String name, long ioNanos, long unmarshalNanos, long onLoadNanos) {
+            this.name = name;
+            this.ioNanos = ioNanos;
+            this.unmarshalNanos = unmarshalNanos;
+            this.onLoadNanos = onLoadNanos;
+        }
+
+        long total() {
+            return ioNanos+unmarshalNanos+onLoadNanos;
+        }
+
+        static final Comparator<Timing> BY_TOTAL = new Comparator<Timing>() {
+            public int compare(Timing o1, Timing o2) {
+                long l = o1.total(), r = o2.total();
+                return l<r ? -1 : l==r ? 0 : 1;
+            }
+        };
+    }
+
+    /**
+     * Number of the slowest items and tasks to report.
+     */
+    private static final int TOP = 100;
+}
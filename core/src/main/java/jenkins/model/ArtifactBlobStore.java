@@ -0,0 +1,227 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.util.AtomicFileWriter;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of artifact contents shared by all builds using {@link DeduplicatingArtifactManager},
+ * addressed by the SHA-256 of the content.
+ *
+ * <p>
+ * Each blob lives in {@code <hash prefix>/<hash>} next to a {@code <hash>.refs} file counting
+ * the manifest entries pointing to it. The blob is removed when the count drops to zero.
+ * All changes to the counts are serialized, so that a blob being released by one build can't
+ * disappear under another build that just decided to reuse it.
+ */
+final class ArtifactBlobStore {
+    private final File dir;
+
+    ArtifactBlobStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * The store under {@code $JENKINS_HOME/artifact-blobs}.
+     */
+    static ArtifactBlobStore get() {
+        return new ArtifactBlobStore(new File(Jenkins.getInstance().getRootDir(), "artifact-blobs"));
+    }
+
+    File getBlob(String hash) {
+        return new File(new File(dir, hash.substring(0, 2)), hash);
+    }
+
+    private File getRefs(String hash) {
+        return new File(new File(dir, hash.substring(0, 2)), hash + ".refs");
+    }
+
+    /**
+     * Adds a reference to an existing blob.
+     *
+     * @return false if there is no such blob (or it doesn't have the expected length), in which case the content
+     *      needs to be transferred and {@link #put}.
+     */
+    boolean retain(String hash, long length) throws IOException {
+        synchronized (LOCK) {
+            File blob = getBlob(hash);
+            if (!blob.isFile() || blob.length() != length)
+                return false;
+            writeRefs(hash, readRefs(hash) + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Creates a file to receive new content, in the same file system as the blobs so that {@link #put} is a rename.
+     */
+    File createTempFile() throws IOException {
+        FileUtils.forceMkdir(dir);
+        return File.createTempFile("transfer", ".tmp", dir);
+    }
+
+    /**
+     * Moves freshly transferred content into the pool, unless identical content got there in the meantime,
+     * and adds a reference to it.
+     *
+     * @param tmp a file from {@link #createTempFile}, which is gone when this method returns
+     * @param hash SHA-256 of the content of {@code tmp}
+     */
+    void put(File tmp, String hash) throws IOException {
+        try {
+            synchronized (LOCK) {
+                File blob = getBlob(hash);
+                if (blob.isFile()) {
+                    if (blob.length() != tmp.length())
+                        throw new IOException("Content of " + tmp + " does not match " + blob + " despite having the same digest");
+                } else {
+                    FileUtils.forceMkdir(blob.getParentFile());
+                    if (!tmp.renameTo(blob))
+                        throw new IOException("Failed to move " + tmp + " to " + blob);
+                }
+                writeRefs(hash, readRefs(hash) + 1);
+            }
+        } finally {
+            if (tmp.exists() && !tmp.delete())
+                LOGGER.log(Level.WARNING, "Failed to delete {0}", tmp);
+        }
+    }
+
+    /**
+     * Drops a reference to a blob, deleting it if it was the last one.
+     */
+    void release(String hash) throws IOException {
+        synchronized (LOCK) {
+            int refs = readRefs(hash) - 1;
+            if (refs > 0) {
+                writeRefs(hash, refs);
+                return;
+            }
+            File blob = getBlob(hash);
+            if (blob.exists() && !blob.delete())
+                throw new IOException("Failed to delete " + blob);
+            File f = getRefs(hash);
+            if (f.exists() && !f.delete())
+                throw new IOException("Failed to delete " + f);
+        }
+    }
+
+    /**
+     * Number of references to the given blob.
+     */
+    int getReferences(String hash) throws IOException {
+        synchronized (LOCK) {
+            return readRefs(hash);
+        }
+    }
+
+    /**
+     * Brings the reference counts back in line with the manifests that actually exist,
+     * such as after Jenkins died between taking a reference and writing the manifest of a build.
+     * Blobs nobody points to anymore are deleted, as are leftover temporary files.
+     *
+     * <p>
+     * Anything touched within the last {@code graceMillis} is left alone, since a build may be archiving it
+     * right now without having written its manifest yet.
+     *
+     * @param references number of manifest entries pointing to each blob, across all builds
+     * @return the number of blobs deleted
+     */
+    int collect(Map<String,Integer> references, long graceMillis) throws IOException {
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        int deleted = 0;
+        File[] tmps = dir.listFiles();
+        if (tmps == null)
+            return 0;
+        for (File tmp : tmps) {
+            if (tmp.isFile() && tmp.getName().startsWith("transfer") && tmp.lastModified() < cutoff && !tmp.delete())
+                LOGGER.log(Level.WARNING, "Failed to delete {0}", tmp);
+        }
+        for (File prefix : tmps) {
+            String[] names = prefix.isDirectory() ? prefix.list() : null;
+            if (names == null)
+                continue;
+            for (String name : names) {
+                if (name.endsWith(".refs"))
+                    continue;
+                synchronized (LOCK) {
+                    File blob = new File(prefix, name);
+                    File refs = getRefs(name);
+                    if (blob.lastModified() >= cutoff || refs.lastModified() >= cutoff)
+                        continue;
+                    int actual = references.containsKey(name) ? references.get(name) : 0;
+                    int recorded = readRefs(name);
+                    if (actual == recorded)
+                        continue;
+                    LOGGER.log(Level.INFO, "{0} is referenced {1} times, not {2}", new Object[] {blob, actual, recorded});
+                    if (actual > 0) {
+                        writeRefs(name, actual);
+                    } else {
+                        if (!blob.delete())
+                            throw new IOException("Failed to delete " + blob);
+                        if (refs.exists() && !refs.delete())
+                            throw new IOException("Failed to delete " + refs);
+                        deleted++;
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private int readRefs(String hash) throws IOException {
+        File f = getRefs(hash);
+        if (!f.exists())
+            return 0;
+        try {
+            return Integer.parseInt(FileUtils.readFileToString(f, "US-ASCII").trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupted reference count in " + f, e);
+        }
+    }
+
+    private void writeRefs(String hash, int refs) throws IOException {
+        AtomicFileWriter w = new AtomicFileWriter(getRefs(hash), "US-ASCII");
+        try {
+            w.write(Integer.toString(refs));
+            w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+
+    /**
+     * Guards the reference counts of all blobs.
+     */
+    private static final Object LOCK = new Object();
+
+    private static final Logger LOGGER = Logger.getLogger(ArtifactBlobStore.class.getName());
+}
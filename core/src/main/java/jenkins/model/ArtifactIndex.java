@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.util.AtomicFileWriter;
+import jenkins.util.VirtualFile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Listing of the archived files of a build with their sizes and timestamps, written once archiving is done,
+ * so that showing the artifacts of a build doesn't need to look at every file again.
+ *
+ * <p>
+ * The index is a text file with one line per file: size, timestamp and path relative to the archive,
+ * separated by a space.
+ */
+final class ArtifactIndex {
+    private ArtifactIndex() {}
+
+    /**
+     * Records all files under the given directory.
+     */
+    static void write(VirtualFile dir, File index) throws IOException {
+        AtomicFileWriter w = new AtomicFileWriter(index, "UTF-8");
+        try {
+            write(dir, "", w);
+            w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+
+    private static void write(VirtualFile dir, String prefix, Writer w) throws IOException {
+        for (VirtualFile f : dir.list()) {
+            String path = prefix + f.getName();
+            if (f.isDirectory()) {
+                write(f, path + '/', w);
+            } else if (f.isFile()) {
+                w.write(f.length() + " " + f.lastModified() + " " + path + "\n");
+            }
+        }
+    }
+
+    static SortedMap<String,Stat> read(File index) throws IOException {
+        SortedMap<String,Stat> r = new TreeMap<String,Stat>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.split(" ", 3);
+                if (tokens.length != 3)
+                    throw new IOException("Malformed line in " + index + ": " + line);
+                r.put(tokens[2], new Stat(Long.parseLong(tokens[0]), Long.parseLong(tokens[1])));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed " + index, e);
+        } finally {
+            in.close();
+        }
+        return Collections.unmodifiableSortedMap(r);
+    }
+
+    static final class Stat implements IndexedVirtualFile.Stat, Serializable {
+        private final long length;
+        private final long lastModified;
+
+        Stat(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Browses the index, opening the actual files only to read them.
+     */
+    static final class IndexVF extends IndexedVirtualFile {
+        private final File dir;
+
+        IndexVF(SortedMap<String,ArtifactIndex.Stat> index, File dir, String path) {
+            super(index, dir, path);
+            this.dir = dir;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override protected IndexedVirtualFile create(String path) {
+            return new IndexVF((SortedMap<String,ArtifactIndex.Stat>) index, dir, path);
+        }
+
+        @Override protected InputStream open(IndexedVirtualFile.Stat stat) throws IOException {
+            // still goes through the usual checks against symlinks leaving the archive
+            return VirtualFile.forFile(dir).child(path).open();
+        }
+
+        /**
+         * Falls back to the disk for files that aren't in the index,
+         * since plugins may add files to the archive directory of a build directly.
+         */
+        @Override public VirtualFile child(String name) {
+            IndexedVirtualFile c = (IndexedVirtualFile) super.child(name);
+            try {
+                if (!c.exists()) {
+                    VirtualFile onDisk = VirtualFile.forFile(dir).child(c.path);
+                    if (onDisk.exists())
+                        return onDisk;
+                }
+            } catch (IOException x) {
+                // then it's as good as missing
+            }
+            return c;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.model.Job;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.AtmostOneTaskExecutor;
+import jenkins.util.SystemProperties;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import javax.annotation.Nonnull;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs {@link Job#logRotate()} in the background at the end of builds, rather than on the executor.
+ *
+ * <p>
+ * Each job has its own queue, in which requests made while one is already waiting are merged into it:
+ * when several builds of the same job complete in a row, the {@link BuildDiscarder} runs once for all of them.
+ * Different jobs are taken care of by {@link #THREADS} threads.
+ *
+ * <p>
+ * This is opt-in via {@link #ENABLED}.
+ *
+ * @since TODO
+ */
+public final class BackgroundBuildDiscarder {
+
+    /**
+     * Per-job queues. Values don't refer to their key strongly, so that deleted jobs go away.
+     */
+    private static final Map<Job<?,?>,AtmostOneTaskExecutor<Void>> queues = new WeakHashMap<Job<?,?>,AtmostOneTaskExecutor<Void>>();
+
+    private static ExecutorService executor;
+
+    private static final AtomicLong requested = new AtomicLong();
+    private static final AtomicLong performed = new AtomicLong();
+
+    private BackgroundBuildDiscarder() {}
+
+    /**
+     * Requests that old builds of the given job be discarded.
+     *
+     * @return
+     *      completes once the {@link BuildDiscarder} ran after this request.
+     */
+    public static Future<Void> schedule(@Nonnull Job<?,?> job) {
+        requested.incrementAndGet();
+        AtmostOneTaskExecutor<Void> queue;
+        synchronized (queues) {
+            queue = queues.get(job);
+            if (queue == null) {
+                queue = new AtmostOneTaskExecutor<Void>(executor(), new Discard(job));
+                queues.put(job, queue);
+            }
+        }
+        return queue.submit();
+    }
+
+    private static final class Discard implements Callable<Void> {
+        private final WeakReference<Job<?,?>> job;
+
+        Discard(Job<?,?> job) {
+            this.job = new WeakReference<Job<?,?>>(job);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Job<?,?> j = job.get();
+            if (j == null) {
+                return null;
+            }
+            SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+            long start = System.currentTimeMillis();
+            try {
+                j.logRotate();
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to rotate log of " + j.getFullName(), e);
+            } finally {
+                SecurityContextHolder.setContext(old);
+                performed.incrementAndGet();
+            }
+            LOGGER.log(Level.FINE, "Rotated log of {0} in {1}ms", new Object[] {j.getFullName(), System.currentTimeMillis() - start});
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "Discarding old builds of " + job.get();
+        }
+    }
+
+    /**
+     * Number of times old builds were requested to be discarded.
+     */
+    public static long getRequested() {
+        return requested.get();
+    }
+
+    /**
+     * Number of times {@link BuildDiscarder}s actually ran; the difference with {@link #getRequested()}
+     * is what was merged, plus what's still waiting.
+     */
+    public static long getPerformed() {
+        return performed.get();
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, THREADS),
+                    new NamingThreadFactory(new DaemonThreadFactory(), BackgroundBuildDiscarder.class.getSimpleName()));
+        }
+        return executor;
+    }
+
+    /**
+     * Set to true to discard old builds in the background at the end of builds.
+     */
+    public static boolean ENABLED = SystemProperties.getBoolean(BackgroundBuildDiscarder.class.getName() + ".enabled");
+
+    /**
+     * Number of jobs whose old builds are discarded at the same time.
+     */
+    public static int THREADS = SystemProperties.getInteger(BackgroundBuildDiscarder.class.getName() + ".threads", 2);
+
+    private static final Logger LOGGER = Logger.getLogger(BackgroundBuildDiscarder.class.getName());
+}
@@ -0,0 +1,340 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.BuildListener;
+import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
+import hudson.util.AtomicFileWriter;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.VirtualFile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link ArtifactManager} that keeps each distinct content only once, in an {@link ArtifactBlobStore}.
+ *
+ * <p>
+ * The build itself only gets a manifest, {@code artifacts.manifest}, listing for each archived path the digest,
+ * length and timestamp of the file. Digests are computed on the agent before anything is transferred,
+ * so content that is already in the pool (the same SDK archived by every build, unchanged jars, etc.)
+ * doesn't even go over the channel.
+ *
+ * @see DeduplicatingArtifactManagerFactory
+ * @since 2.6
+ */
+public final class DeduplicatingArtifactManager extends ArtifactManager {
+
+    private transient Run<?,?> build;
+
+    /**
+     * Cached contents of the manifest, keyed by archive path.
+     */
+    private transient volatile SortedMap<String,Entry> manifest;
+
+    public DeduplicatingArtifactManager(Run<?,?> build) {
+        onLoad(build);
+    }
+
+    @Override public void onLoad(Run<?,?> build) {
+        this.build = build;
+        this.manifest = null;
+    }
+
+    @Override public void archive(FilePath workspace, Launcher launcher, BuildListener listener, Map<String,String> artifacts) throws IOException, InterruptedException {
+        ArtifactBlobStore store = ArtifactBlobStore.get();
+        Map<String,Entry> digests = workspace.act(new Digester(new LinkedHashSet<String>(artifacts.values())));
+
+        int transferred = 0;
+        synchronized (this) {
+            SortedMap<String,Entry> m = new TreeMap<String,Entry>(getManifest());
+            List<String> replaced = new ArrayList<String>();
+            try {
+                for (Map.Entry<String,String> a : artifacts.entrySet()) {
+                    Entry e = digests.get(a.getValue());
+                    if (e == null)
+                        throw new FileNotFoundException(workspace.child(a.getValue()).getRemote());
+                    if (!store.retain(e.hash, e.length)) {
+                        e = transfer(store, workspace.child(a.getValue()), e);
+                        transferred++;
+                    }
+                    Entry old = m.put(a.getKey(), e);
+                    if (old != null)
+                        replaced.add(old.hash);
+                }
+            } catch (IOException x) {
+                releaseAdded(store, m);
+                throw x;
+            } catch (InterruptedException x) {
+                releaseAdded(store, m);
+                throw x;
+            }
+            writeManifest(m);
+            manifest = Collections.unmodifiableSortedMap(m);
+            for (String hash : replaced)
+                store.release(hash);
+        }
+        LOGGER.log(Level.FINE, "archived {0} files for {1}, {2} of which were transferred", new Object[] {artifacts.size(), build, transferred});
+    }
+
+    /**
+     * Copies a file that's not in the pool yet. The digest is computed again on the received bytes,
+     * in case the file changed since it was first digested.
+     */
+    private Entry transfer(ArtifactBlobStore store, FilePath src, Entry e) throws IOException, InterruptedException {
+        File tmp = store.createTempFile();
+        MessageDigest md = newDigest();
+        OutputStream out = new DigestOutputStream(new FileOutputStream(tmp), md);
+        try {
+            src.copyTo(out);
+        } catch (IOException x) {
+            out.close();
+            tmp.delete();
+            throw x;
+        } catch (InterruptedException x) {
+            out.close();
+            tmp.delete();
+            throw x;
+        }
+        out.close();
+        Entry actual = new Entry(Util.toHexString(md.digest()), tmp.length(), e.lastModified);
+        store.put(tmp, actual.hash);
+        return actual;
+    }
+
+    /**
+     * Undoes the references taken by a failed {@link #archive} for entries that aren't in the stored manifest.
+     */
+    private void releaseAdded(ArtifactBlobStore store, SortedMap<String,Entry> m) {
+        SortedMap<String,Entry> saved = getManifest();
+        for (Map.Entry<String,Entry> e : m.entrySet()) {
+            if (saved.get(e.getKey()) != e.getValue()) {
+                try {
+                    store.release(e.getValue().hash);
+                } catch (IOException x) {
+                    LOGGER.log(Level.WARNING, "failed to release " + e.getValue().hash, x);
+                }
+            }
+        }
+    }
+
+    @Override public synchronized boolean delete() throws IOException, InterruptedException {
+        File f = getManifestFile();
+        if (!f.exists()) {
+            LOGGER.log(Level.FINE, "no manifest {0} to delete for {1}", new Object[] {f, build});
+            return false;
+        }
+        SortedMap<String,Entry> m = readManifest(f);
+        LOGGER.log(Level.FINE, "deleting {0} for {1}", new Object[] {f, build});
+        if (!f.delete())
+            throw new IOException("Failed to delete " + f);
+        manifest = null;
+        ArtifactBlobStore store = ArtifactBlobStore.get();
+        for (Entry e : m.values())
+            store.release(e.hash);
+        return true;
+    }
+
+    @Override public VirtualFile root() {
+        return new ManifestVF(getManifest(), getArtifactsDir(), ArtifactBlobStore.get(), "");
+    }
+
+    private SortedMap<String,Entry> getManifest() {
+        SortedMap<String,Entry> m = manifest;
+        if (m == null) {
+            try {
+                m = Collections.unmodifiableSortedMap(readManifest(getManifestFile()));
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "failed to read the artifact manifest of " + build, x);
+                return Collections.unmodifiableSortedMap(new TreeMap<String,Entry>());
+            }
+            manifest = m;
+        }
+        return m;
+    }
+
+    private File getManifestFile() {
+        return new File(build.getRootDir(), "artifacts.manifest");
+    }
+
+    @SuppressWarnings("deprecation")
+    private File getArtifactsDir() {
+        return build.getArtifactsDir();
+    }
+
+    /**
+     * Reads a manifest, one line per file: hash, length, timestamp and path, separated by a space.
+     */
+    static SortedMap<String,Entry> readManifest(File f) throws IOException {
+        SortedMap<String,Entry> m = new TreeMap<String,Entry>();
+        if (!f.exists())
+            return m;
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] tokens = line.split(" ", 4);
+                if (tokens.length != 4)
+                    throw new IOException("Malformed line in " + f + ": " + line);
+                m.put(tokens[3], new Entry(tokens[0], Long.parseLong(tokens[1]), Long.parseLong(tokens[2])));
+            }
+        } catch (NumberFormatException x) {
+            throw new IOException("Malformed " + f, x);
+        } finally {
+            r.close();
+        }
+        return m;
+    }
+
+    private void writeManifest(SortedMap<String,Entry> m) throws IOException {
+        AtomicFileWriter w = new AtomicFileWriter(getManifestFile(), "UTF-8");
+        try {
+            for (Map.Entry<String,Entry> e : m.entrySet()) {
+                Entry v = e.getValue();
+                w.write(v.hash + ' ' + v.length + ' ' + v.lastModified + ' ' + e.getKey() + '\n');
+            }
+            w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException x) {
+            throw new IOException(x);
+        }
+    }
+
+    /**
+     * What the manifest records about one archived file.
+     */
+    static final class Entry implements IndexedVirtualFile.Stat, Serializable {
+        final String hash;
+        final long length;
+        final long lastModified;
+
+        Entry(String hash, long length, long lastModified) {
+            this.hash = hash;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Digests the files to be archived where they are, so that only new content needs to be transferred.
+     */
+    private static final class Digester extends MasterToSlaveFileCallable<Map<String,Entry>> {
+        private final Set<String> paths;
+
+        Digester(Set<String> paths) {
+            this.paths = paths;
+        }
+
+        @Override public Map<String,Entry> invoke(File ws, VirtualChannel channel) throws IOException, InterruptedException {
+            Map<String,Entry> r = new HashMap<String,Entry>();
+            byte[] buf = new byte[8192];
+            for (String path : paths) {
+                File f = new File(ws, path);
+                MessageDigest md = newDigest();
+                InputStream in = new FileInputStream(f);
+                try {
+                    int len;
+                    while ((len = in.read(buf)) >= 0)
+                        md.update(buf, 0, len);
+                } finally {
+                    in.close();
+                }
+                r.put(path, new Entry(Util.toHexString(md.digest()), f.length(), f.lastModified()));
+            }
+            return r;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Presents the manifest as a directory tree, reading file contents from the pool.
+     */
+    static final class ManifestVF extends IndexedVirtualFile {
+        private final File artifactsDir;
+        private final transient ArtifactBlobStore store;
+
+        ManifestVF(SortedMap<String,Entry> manifest, File artifactsDir, ArtifactBlobStore store, String path) {
+            super(manifest, artifactsDir, path);
+            this.artifactsDir = artifactsDir;
+            this.store = store;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override protected IndexedVirtualFile create(String path) {
+            return new ManifestVF((SortedMap<String,Entry>) index, artifactsDir, store, path);
+        }
+
+        @Override protected InputStream open(Stat stat) throws IOException {
+            return new FileInputStream((store != null ? store : ArtifactBlobStore.get()).getBlob(((Entry) stat).hash));
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DeduplicatingArtifactManager.class.getName());
+}
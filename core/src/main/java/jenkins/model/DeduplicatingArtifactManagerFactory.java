@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selects {@link DeduplicatingArtifactManager} for all builds.
+ * Builds archived before this was configured keep whatever manager they were created with.
+ *
+ * @since 2.6
+ */
+public class DeduplicatingArtifactManagerFactory extends ArtifactManagerFactory {
+
+    @DataBoundConstructor public DeduplicatingArtifactManagerFactory() {}
+
+    @Override public ArtifactManager managerFor(Run<?,?> build) {
+        return new DeduplicatingArtifactManager(build);
+    }
+
+    /**
+     * Repairs the reference counts of {@link ArtifactBlobStore} once a day, from the manifests of all builds,
+     * so that blobs whose counts were left too high by a crash are eventually deleted.
+     */
+    @Extension public static final class BlobCollector extends AsyncPeriodicWork {
+        public BlobCollector() {
+            super("Artifact blob collection");
+        }
+
+        @Override public long getRecurrencePeriod() {
+            return DAY;
+        }
+
+        @Override protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            Jenkins j = Jenkins.getInstance();
+            if (!new File(j.getRootDir(), "artifact-blobs").isDirectory())
+                return;
+            Map<String,Integer> references = new HashMap<String,Integer>();
+            for (Job<?,?> job : j.getAllItems(Job.class)) {
+                File[] builds = job.getBuildDir().listFiles();
+                if (builds == null)
+                    continue;
+                for (File build : builds) {
+                    File manifest = new File(build, "artifacts.manifest");
+                    if (!manifest.isFile() || Util.isSymlink(build))
+                        continue;
+                    try {
+                        for (DeduplicatingArtifactManager.Entry e : DeduplicatingArtifactManager.readManifest(manifest).values()) {
+                            Integer n = references.get(e.hash);
+                            references.put(e.hash, n == null ? 1 : n + 1);
+                        }
+                    } catch (IOException x) {
+                        // can't tell what it points to, so don't delete anything
+                        x.printStackTrace(listener.error("Failed to read " + manifest));
+                        return;
+                    }
+                }
+            }
+            int deleted = ArtifactBlobStore.get().collect(references, DAY);
+            listener.getLogger().println("Deleted " + deleted + " unreferenced artifact blobs");
+        }
+    }
+
+    @Extension public static final class DescriptorImpl extends ArtifactManagerFactoryDescriptor {
+        @Override public String getDisplayName() {
+            return Messages.DeduplicatingArtifactManagerFactory_DisplayName();
+        }
+    }
+
+}
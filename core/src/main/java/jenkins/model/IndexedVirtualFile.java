@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import jenkins.util.VirtualFile;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * {@link VirtualFile} over a sorted list of files with their sizes and timestamps,
+ * so that browsing doesn't touch the storage until a file is actually opened.
+ * Directories are implied by the paths of the files.
+ */
+abstract class IndexedVirtualFile extends VirtualFile {
+
+    /**
+     * What the index knows about a file.
+     */
+    interface Stat {
+        long getLength();
+        long getLastModified();
+    }
+
+    protected final SortedMap<String,? extends Stat> index;
+    /**
+     * Where the files would be if they were all on the disk, which gives them their URIs.
+     */
+    private final File dir;
+    /**
+     * Path relative to the root, without leading or trailing slash; empty for the root itself.
+     */
+    protected final String path;
+
+    IndexedVirtualFile(SortedMap<String,? extends Stat> index, File dir, String path) {
+        this.index = index;
+        this.dir = dir;
+        this.path = path;
+    }
+
+    /**
+     * Creates another file over the same index.
+     */
+    protected abstract IndexedVirtualFile create(String path);
+
+    /**
+     * Opens the content of the file at {@link #path}.
+     */
+    protected abstract InputStream open(Stat stat) throws IOException;
+
+    private String prefix() {
+        return path.isEmpty() ? "" : path + '/';
+    }
+
+    /**
+     * Entries under this directory.
+     */
+    private SortedMap<String,? extends Stat> descendants() {
+        String p = prefix();
+        return p.isEmpty() ? index : index.subMap(p, p + Character.MAX_VALUE);
+    }
+
+    @Override public String getName() {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Override public URI toURI() {
+        return path.isEmpty() ? dir.toURI() : new File(dir, path).toURI();
+    }
+
+    @Override public VirtualFile getParent() {
+        int i = path.lastIndexOf('/');
+        return create(i < 0 ? "" : path.substring(0, i));
+    }
+
+    @Override public boolean isDirectory() throws IOException {
+        return path.isEmpty() || !descendants().isEmpty();
+    }
+
+    @Override public boolean isFile() throws IOException {
+        return index.containsKey(path);
+    }
+
+    @Override public boolean exists() throws IOException {
+        return isFile() || isDirectory();
+    }
+
+    @Override public VirtualFile[] list() throws IOException {
+        String p = prefix();
+        Set<String> names = new LinkedHashSet<String>();
+        for (String key : descendants().keySet()) {
+            String rest = key.substring(p.length());
+            int i = rest.indexOf('/');
+            names.add(i < 0 ? rest : rest.substring(0, i));
+        }
+        List<VirtualFile> r = new ArrayList<VirtualFile>();
+        for (String name : names)
+            r.add(child(name));
+        return r.toArray(new VirtualFile[r.size()]);
+    }
+
+    @Override public String[] list(String glob) throws IOException {
+        List<String> patterns = new ArrayList<String>();
+        for (String pattern : glob.split(",")) {
+            pattern = pattern.trim();
+            if (pattern.isEmpty())
+                continue;
+            // as in Ant, a trailing slash means everything below
+            patterns.add(pattern.endsWith("/") ? pattern + "**" : pattern);
+        }
+        String p = prefix();
+        // like FileVF, which goes through a DirectoryScanner with default excludes
+        String[] excludes = DirectoryScanner.getDefaultExcludes();
+        List<String> r = new ArrayList<String>();
+        descendants:
+        for (String key : descendants().keySet()) {
+            String rel = key.substring(p.length());
+            for (String exclude : excludes) {
+                if (SelectorUtils.matchPath(exclude, rel))
+                    continue descendants;
+            }
+            for (String pattern : patterns) {
+                if (SelectorUtils.matchPath(pattern, rel)) {
+                    r.add(rel);
+                    break;
+                }
+            }
+        }
+        return r.toArray(new String[r.size()]);
+    }
+
+    @Override public VirtualFile child(String name) {
+        return create(prefix() + name.replaceAll("^/+|/+$", ""));
+    }
+
+    @Override public long length() throws IOException {
+        Stat s = index.get(path);
+        return s != null ? s.getLength() : 0;
+    }
+
+    @Override public long lastModified() throws IOException {
+        Stat s = index.get(path);
+        return s != null ? s.getLastModified() : 0;
+    }
+
+    @Override public boolean canRead() throws IOException {
+        return isFile();
+    }
+
+    @Override public InputStream open() throws IOException {
+        Stat s = index.get(path);
+        if (s == null)
+            throw new FileNotFoundException(path);
+        return open(s);
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -199,6 +199,7 @@ import java.util.concurrent.CountDownLatch;
 import jenkins.ExtensionComponentSet;
 import jenkins.ExtensionRefreshException;
 import jenkins.InitReactorRunner;
+import jenkins.diagnostics.StartupProfile;
 import jenkins.install.InstallState;
 import jenkins.install.InstallUtil;
 import jenkins.install.SetupWizard;
@@ -985,6 +986,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
      *      If non-null, this can be consulted for ignoring some tasks. Only used during the initialization of Jenkins.
      */
     private void executeReactor(final InitStrategy is, TaskBuilder... builders) throws IOException, InterruptedException, ReactorException {
+        final StartupProfile profile = StartupProfile.start();
         Reactor reactor = new Reactor(builders) {
             /**
              * Sets the thread name to the task for better diagnostics.
@@ -1001,11 +1003,13 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
                 if (taskName !=null)
                     t.setName(taskName);
                 try {
-                    long start = System.currentTimeMillis();
+                    long start = System.nanoTime();
                     super.runTask(task);
+                    long elapsed = System.nanoTime()-start;
+                    profile.onTaskCompleted(taskName, elapsed);
                     if(LOG_STARTUP_PERFORMANCE)
                         LOGGER.info(String.format("Took %dms for %s by %s",
-                                System.currentTimeMillis()-start, taskName, name));
+                                TimeUnit.NANOSECONDS.toMillis(elapsed), taskName, name));
                 } finally {
                     t.setName(name);
                     SecurityContextHolder.clearContext();
@@ -1013,17 +1017,26 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
             }
         };
 
-        new InitReactorRunner() {
-            @Override
-            protected void onInitMilestoneAttained(InitMilestone milestone) {
-                initLevel = milestone;
-                if (milestone==PLUGINS_PREPARED) {
-                    // set up Guice to enable injection as early as possible
-                    // before this milestone, ExtensionList.ensureLoaded() won't actually try to locate instances
-                    ExtensionList.lookup(ExtensionFinder.class).getComponents();
+        try {
+            new InitReactorRunner() {
+                @Override
+                protected void onInitMilestoneAttained(InitMilestone milestone) {
+                    initLevel = milestone;
+                    profile.onAttained(milestone);
+                    if (milestone==PLUGINS_PREPARED) {
+                        // set up Guice to enable injection as early as possible
+                        // before this milestone, ExtensionList.ensureLoaded() won't actually try to locate instances
+                        ExtensionList.lookup(ExtensionFinder.class).getComponents();
+                    }
                 }
+            }.run(reactor);
+        } finally {
+            try {
+                profile.writeTo(new File(root, "logs/startup-profile.txt"));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write the startup profile", e);
             }
-        }.run(reactor);
+        }
     }
 
 
@@ -194,7 +194,7 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
         // Avoid calling resolveSymlink on a nonexistent file as it will probably throw an IOException:
         if (!exists(cache) || Util.resolveSymlink(cache)==null) {
           // symlink not supported. use a regular file
-          AtomicFileWriter cw = new AtomicFileWriter(cache);
+          AtomicFileWriter cw = new AtomicFileWriter(cache, "UTF-8", AtomicFileWriter.Durability.RELAXED);
           try {
               cw.write(target);
               cw.commit();
@@ -31,9 +31,13 @@ import hudson.model.BuildListener;
 import hudson.model.Run;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
 import jenkins.util.VirtualFile;
 
 /**
@@ -47,6 +51,12 @@ public class StandardArtifactManager extends ArtifactManager {
 
     protected transient Run<?,?> build;
 
+    /**
+     * Contents of the {@link ArtifactIndex}, if loaded, and the timestamp of the index file they were read from.
+     */
+    private transient volatile SortedMap<String,ArtifactIndex.Stat> index;
+    private transient volatile long indexTimestamp;
+
     public StandardArtifactManager(Run<?,?> build) {
         onLoad(build);
     }
@@ -57,8 +67,23 @@ public class StandardArtifactManager extends ArtifactManager {
 
     @Override public void archive(FilePath workspace, Launcher launcher, BuildListener listener, final Map<String,String> artifacts) throws IOException, InterruptedException {
         File dir = getArtifactsDir();
+        // outdated as soon as files get added
+        deleteIndex();
         String description = "transfer of " + artifacts.size() + " files"; // TODO improve when just one file
-        workspace.copyRecursiveTo(new FilePath.ExplicitlySpecifiedDirScanner(artifacts), new FilePath(dir), description);
+        if (TRANSFER_STREAMS > 1 && artifacts.size() >= PARALLEL_TRANSFER_THRESHOLD) {
+            workspace.copyRecursiveTo(new FilePath.ExplicitlySpecifiedDirScanner(artifacts), new FilePath(dir), description,
+                    TRANSFER_STREAMS, TRANSFER_COMPRESSION, listener);
+        } else {
+            workspace.copyRecursiveTo(new FilePath.ExplicitlySpecifiedDirScanner(artifacts), new FilePath(dir), description);
+        }
+        if (USE_INDEX) {
+            try {
+                ArtifactIndex.write(VirtualFile.forFile(dir), getIndexFile());
+            } catch (IOException x) {
+                LOG.log(Level.WARNING, "failed to index the artifacts of " + build, x);
+                deleteIndex();
+            }
+        }
     }
 
     @Override public final boolean delete() throws IOException, InterruptedException {
@@ -68,12 +93,42 @@ public class StandardArtifactManager extends ArtifactManager {
             return false;
         }
         LOG.log(Level.FINE, "deleting {0} for {1}", new Object[] {ad, build});
+        deleteIndex();
         Util.deleteRecursive(ad);
         return true;
     }
 
     @Override public VirtualFile root() {
-        return VirtualFile.forFile(getArtifactsDir());
+        File dir = getArtifactsDir();
+        File f = getIndexFile();
+        long timestamp = f.lastModified();
+        // ignore the index if files were evidently added some other way since
+        if (USE_INDEX && timestamp != 0 && timestamp >= dir.lastModified()) {
+            SortedMap<String,ArtifactIndex.Stat> idx = index;
+            if (idx == null || indexTimestamp != timestamp) {
+                try {
+                    idx = ArtifactIndex.read(f);
+                } catch (IOException x) {
+                    LOG.log(Level.WARNING, "failed to read the artifact index of " + build, x);
+                    return VirtualFile.forFile(dir);
+                }
+                index = idx;
+                indexTimestamp = timestamp;
+            }
+            return new ArtifactIndex.IndexVF(idx, dir, "");
+        }
+        return VirtualFile.forFile(dir);
+    }
+
+    private File getIndexFile() {
+        return new File(build.getRootDir(), "archive-index.txt");
+    }
+
+    private void deleteIndex() {
+        index = null;
+        File f = getIndexFile();
+        if (f.exists() && !f.delete())
+            LOG.log(Level.WARNING, "failed to delete {0}", f);
     }
 
     @SuppressWarnings("deprecation")
@@ -81,4 +136,40 @@ public class StandardArtifactManager extends ArtifactManager {
         return build.getArtifactsDir();
     }
 
+    /**
+     * Whether to record the archived files in an index when archiving, and browse that rather than the archive directory.
+     * Off by default: files added to the archive directory other than through {@link #archive} are only found
+     * when looked up by name, and don't show up in listings.
+     */
+    public static boolean USE_INDEX = SystemProperties.getBoolean(StandardArtifactManager.class.getName() + ".useIndex");
+
+    /**
+     * Number of concurrent streams used to transfer artifacts from agents.
+     * @see FilePath#copyRecursiveTo(hudson.util.DirScanner, FilePath, String, int, FilePath.TarCompression, hudson.model.TaskListener)
+     */
+    public static int TRANSFER_STREAMS = SystemProperties.getInteger(StandardArtifactManager.class.getName() + ".transferStreams", 1);
+
+    /**
+     * Builds archiving fewer files than this use a single stream regardless of {@link #TRANSFER_STREAMS}.
+     */
+    public static int PARALLEL_TRANSFER_THRESHOLD = SystemProperties.getInteger(StandardArtifactManager.class.getName() + ".parallelTransferThreshold", 100);
+
+    /**
+     * Compression of the parallel streams: {@code GZIP}, {@code GZIP_FAST} or {@code NONE} (for fast networks).
+     */
+    public static FilePath.TarCompression TRANSFER_COMPRESSION = transferCompression();
+
+    private static FilePath.TarCompression transferCompression() {
+        String name = SystemProperties.getString(StandardArtifactManager.class.getName() + ".transferCompression");
+        if (name == null)
+            return FilePath.TarCompression.GZIP_FAST;
+        try {
+            return FilePath.TarCompression.valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException x) {
+            LOG.log(Level.WARNING, "Unknown transfer compression {0}, expected one of {1}; using GZIP_FAST",
+                    new Object[] {name, Arrays.toString(FilePath.TarCompression.values())});
+            return FilePath.TarCompression.GZIP_FAST;
+        }
+    }
+
 }
@@ -70,6 +70,15 @@ public class JnlpSlaveAgentProtocol extends AgentProtocol {
         new Handler(hub.getHub(),socket).run();
     }
 
+    /**
+     * {@inheritDoc}
+     * This returns once the channel is established; the channel then carries on without the calling thread.
+     */
+    @Override
+    public boolean isHandshakeOnly() {
+        return true;
+    }
+
     protected static class Handler extends JnlpServerHandshake {
 
         /**
@@ -124,7 +133,8 @@ public class JnlpSlaveAgentProtocol extends AgentProtocol {
                     cc.onChannelBuilding(cb, computer);
                 }
 
-                computer.setChannel(cb.withHeaderStream(log).build(socket), log,
+                Channel channel = cb.withHeaderStream(log).build(socket);
+                computer.setChannelWithoutWaiting(channel, log,
                     new Listener() {
                         @Override
                         public void onClosed(Channel channel, IOException cause) {
@@ -137,7 +147,7 @@ public class JnlpSlaveAgentProtocol extends AgentProtocol {
                             }
                         }
                     });
-                return computer.getChannel();
+                return channel;
             } catch (AbortException e) {
                 logw.println(e.getMessage());
                 logw.println("Failed to establish the connection with the agent");
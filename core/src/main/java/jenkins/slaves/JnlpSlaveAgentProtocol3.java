@@ -47,6 +47,15 @@ public class JnlpSlaveAgentProtocol3 extends AgentProtocol {
         new Handler(hub.getHub(), socket).run();
     }
 
+    /**
+     * {@inheritDoc}
+     * This returns once the channel is established; the channel then carries on without the calling thread.
+     */
+    @Override
+    public boolean isHandshakeOnly() {
+        return true;
+    }
+
     static class Handler extends JnlpServer3Handshake {
         private SlaveComputer computer;
         private PrintWriter logw;
@@ -60,7 +69,7 @@ public class JnlpSlaveAgentProtocol3 extends AgentProtocol {
             try {
                 Channel channel = connect();
 
-                computer.setChannel(channel, log,
+                computer.setChannelWithoutWaiting(channel, log,
                         new Channel.Listener() {
                             @Override
                             public void onClosed(Channel channel, IOException cause) {
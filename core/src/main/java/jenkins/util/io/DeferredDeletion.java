@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.util.io;
+
+import hudson.Util;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes files and directories from a background thread, after moving them out of the way.
+ *
+ * <p>
+ * {@link #delete(File)} renames what is to be deleted into a {@code .trash} directory next to it,
+ * which is quick and makes it disappear from its original location right away, and leaves the
+ * actual, possibly lengthy, deletion to a background thread.
+ * Should Jenkins stop before that is done, the leftovers are deleted the next time something
+ * is moved to the same trash directory.
+ *
+ * <p>
+ * This is opt-in via {@link #ENABLED}; callers fall back to deleting things themselves otherwise.
+ *
+ * @since TODO
+ */
+public final class DeferredDeletion {
+
+    static final String TRASH = ".trash";
+
+    private static ExecutorService executor;
+
+    /**
+     * What has been moved to the trash and is yet to be deleted.
+     */
+    private static final Set<File> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<File,Boolean>());
+
+    private static final AtomicLong requested = new AtomicLong();
+    private static final AtomicLong deleted = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong millis = new AtomicLong();
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private DeferredDeletion() {}
+
+    /**
+     * Moves the given file or directory to the trash, and deletes it from there in the background.
+     *
+     * @throws IOException
+     *      if it could not be moved, for example because it's in use, in which case it's left as is.
+     */
+    public static void delete(@Nonnull File f) throws IOException {
+        final File trash = new File(f.getAbsoluteFile().getParentFile(), TRASH);
+        final File target = new File(trash, f.getName() + '.' + System.currentTimeMillis() + '.' + sequence.incrementAndGet());
+        synchronized (inFlight) { // against the removal of an empty trash directory
+            if (!trash.isDirectory() && !trash.mkdirs() && !trash.isDirectory())
+                throw new IOException("Failed to create " + trash);
+            inFlight.add(target);
+            try {
+                Files.move(f.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                inFlight.remove(target);
+                throw e;
+            }
+        }
+        requested.incrementAndGet();
+        executor().submit(new Runnable() {
+            public void run() {
+                try {
+                    delete(target);
+                    // leftovers from a previous run of Jenkins
+                    File[] others = trash.listFiles();
+                    if (others != null) {
+                        for (File other : others) {
+                            if (inFlight.add(other)) {
+                                LOGGER.log(Level.FINE, "Deleting leftover {0}", other);
+                                requested.incrementAndGet();
+                                delete(other);
+                            }
+                        }
+                    }
+                } finally {
+                    synchronized (inFlight) {
+                        trash.delete(); // unless something else got there in the meantime
+                    }
+                }
+            }
+
+            private void delete(File f) {
+                long start = System.currentTimeMillis();
+                try {
+                    Util.deleteRecursive(f);
+                    deleted.incrementAndGet();
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Failed to delete " + f, e);
+                } finally {
+                    inFlight.remove(f);
+                    millis.addAndGet(System.currentTimeMillis() - start);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until everything moved to the trash so far has been deleted.
+     */
+    public static void waitForAll() throws InterruptedException {
+        try {
+            executor().submit(new Runnable() {
+                public void run() {}
+            }).get();
+        } catch (ExecutionException e) {
+            throw new AssertionError(e); // cannot happen
+        }
+    }
+
+    /**
+     * Number of files and directories moved to the trash so far.
+     */
+    public static long getRequested() {
+        return requested.get();
+    }
+
+    /**
+     * Number of files and directories from the trash that were deleted.
+     */
+    public static long getDeleted() {
+        return deleted.get();
+    }
+
+    /**
+     * Number of files and directories from the trash that could not be deleted, and are left there.
+     */
+    public static long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Number of files and directories waiting to be deleted.
+     */
+    public static long getPending() {
+        return inFlight.size();
+    }
+
+    /**
+     * Time, in milliseconds, spent deleting things from the trash so far.
+     */
+    public static long getDeletionMillis() {
+        return millis.get();
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            // Util.deleteRecursive is parallel already
+            executor = Executors.newSingleThreadExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), DeferredDeletion.class.getSimpleName()));
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the background thread. What is left in the trash is deleted the next time Jenkins puts something there.
+     */
+    @Terminator
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        inFlight.clear();
+    }
+
+    /**
+     * Set to true to delete builds in the background.
+     */
+    public static boolean ENABLED = SystemProperties.getBoolean(DeferredDeletion.class.getName() + ".enabled");
+
+    private static final Logger LOGGER = Logger.getLogger(DeferredDeletion.class.getName());
+}
@@ -0,0 +1,365 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.util.io;
+
+import com.google.common.collect.MapMaker;
+import hudson.BulkChange;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Saveable;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces repeated {@link Saveable#save()} calls and performs them from a background I/O thread.
+ *
+ * <p>
+ * This is opt-in via {@link #ENABLED}. A {@link Saveable} participates by checking
+ * {@link #defer(Saveable)} right after {@link BulkChange#contains(Saveable)}:
+ *
+ * <pre>
+ * public synchronized void save() throws IOException {
+ *     if(BulkChange.contains(this) || DeferredSaver.defer(this))   return;
+ *     getConfigFile().write(this);
+ * }
+ * </pre>
+ *
+ * <p>
+ * The first request starts a window of {@link #WINDOW} milliseconds. Further requests for the same object
+ * within that window are dropped, and at the end of the window all pending objects are saved, in the order
+ * they were first requested, by calling {@link Saveable#save()} again on the I/O thread. Since the object
+ * is serialized only when it is actually written, the file always reflects the latest state.
+ *
+ * <p>
+ * Pending saves are flushed when Jenkins shuts down. Code that deletes an object should call
+ * {@link #cancel(Saveable)} while holding the object's monitor, so that a late write does not resurrect its files,
+ * and code that needs the file on disk right away should call {@link #flush(Saveable)}.
+ *
+ * <p>
+ * A deferred save that fails is logged, and also reported to the next caller:
+ * the next {@link Saveable#save()} of that object is not deferred, so it writes the file itself and throws,
+ * and {@link #flushAll()} and {@link #flush(Saveable)} throw the failures of the saves they perform.
+ *
+ * @since 2.6
+ */
+public final class DeferredSaver {
+
+    /**
+     * Identity key, since {@link Saveable}s may have their own notion of equality.
+     */
+    private static final class Key {
+        final Saveable saveable;
+
+        Key(Saveable saveable) {
+            this.saveable = saveable;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).saveable == saveable;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(saveable);
+        }
+    }
+
+    /**
+     * Objects waiting to be saved, in the order of the first request. Guarded by itself.
+     */
+    private static final Map<Key,Saveable> pending = new LinkedHashMap<Key,Saveable>();
+
+    /**
+     * Deferred saves that failed and haven't been reported to a caller yet. Guarded by {@link #pending}.
+     */
+    private static final Map<Key,IOException> failed = new HashMap<Key,IOException>();
+
+    /**
+     * Objects that have been {@link #cancel(Saveable) cancelled}, which the I/O thread must not write anymore.
+     * Weak and by identity, so that deleted objects can still be collected.
+     */
+    private static final Set<Saveable> dead = Collections.newSetFromMap(new MapMaker().weakKeys().<Saveable,Boolean>makeMap());
+
+    /**
+     * Whether a flush has been scheduled for the current window. Guarded by {@link #pending}.
+     */
+    private static boolean flushScheduled;
+
+    /**
+     * Set once Jenkins is shutting down, after which saves are no longer deferred,
+     * as the I/O thread wouldn't be around to write them. Guarded by {@link #pending}.
+     */
+    private static boolean shutDown;
+
+    private static ScheduledExecutorService executor;
+
+    /**
+     * Set while we are actually writing, so that the nested {@link Saveable#save()} goes to the disk.
+     */
+    private static final ThreadLocal<Boolean> WRITING = new ThreadLocal<Boolean>();
+
+    private static final AtomicLong requested = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+
+    private static final Runnable FLUSH = new Runnable() {
+        public void run() {
+            synchronized (pending) {
+                flushScheduled = false;
+            }
+            try {
+                flushAll();
+            } catch (IOException e) {
+                // already logged, and reported to the next save of the object
+            }
+        }
+    };
+
+    private DeferredSaver() {}
+
+    /**
+     * Requests that the given object be saved later.
+     *
+     * @return
+     *      true if the save was deferred, in which case the caller shouldn't write anything now.
+     *      false if the caller should go ahead and persist the object itself.
+     */
+    public static boolean defer(@Nonnull Saveable s) {
+        if (!ENABLED || Boolean.TRUE.equals(WRITING.get()))
+            return false;
+        if (dead.contains(s))
+            return false; // a save after deletion behaves as it would without deferral
+        synchronized (pending) {
+            if (shutDown)
+                return false;
+            Key k = new Key(s);
+            if (failed.remove(k) != null)
+                return false; // let the caller see what goes wrong this time
+            if (!pending.containsKey(k))
+                pending.put(k, s);
+            if (!flushScheduled) {
+                executor().schedule(FLUSH, WINDOW, TimeUnit.MILLISECONDS);
+                flushScheduled = true;
+            }
+            requested.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Drops any pending save of the given object, and makes sure that the I/O thread won't write it anymore,
+     * typically because it is being deleted.
+     *
+     * <p>
+     * Waits for a write of the object that is already in progress.
+     * Callers should hold the monitor of the object until its files are gone,
+     * as the I/O thread checks for cancellation while holding it.
+     */
+    public static void cancel(@Nonnull Saveable s) {
+        synchronized (s) {
+            synchronized (pending) {
+                Key k = new Key(s);
+                pending.remove(k);
+                failed.remove(k);
+            }
+            dead.add(s);
+        }
+    }
+
+    /**
+     * If the given object has a pending save, performs it right away on the calling thread.
+     *
+     * @throws IOException
+     *      if that save fails, or if the last deferred save of the object failed and hasn't been reported yet.
+     */
+    public static void flush(@Nonnull Saveable s) throws IOException {
+        synchronized (pending) {
+            Key k = new Key(s);
+            IOException e = failed.remove(k);
+            if (pending.remove(k) == null) {
+                if (e != null)
+                    throw e;
+                return;
+            }
+        }
+        write(s);
+    }
+
+    /**
+     * Writes all the pending saves on the calling thread.
+     *
+     * @throws IOException
+     *      the first failure among those saves, with the others {@linkplain Throwable#getSuppressed() suppressed}.
+     *      All the saves are attempted regardless.
+     */
+    public static void flushAll() throws IOException {
+        List<Saveable> batch;
+        synchronized (pending) {
+            if (pending.isEmpty())
+                return;
+            batch = new ArrayList<Saveable>(pending.values());
+            pending.clear();
+        }
+        IOException failure = null;
+        for (Saveable s : batch) {
+            IOException e;
+            try {
+                write(s);
+                continue;
+            } catch (IOException x) {
+                e = x;
+            } catch (RuntimeException x) {
+                e = new IOException("Failed to save " + s, x);
+            }
+            LOGGER.log(Level.WARNING, "Failed to save " + s, e);
+            synchronized (pending) {
+                failed.put(new Key(s), e);
+            }
+            if (failure == null)
+                failure = e;
+            else
+                failure.addSuppressed(e);
+        }
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.fine("Wrote " + batch.size() + " deferred saves; " + getSavesAvoided() + " saves avoided so far");
+        if (failure != null)
+            throw failure;
+    }
+
+    private static void write(Saveable s) throws IOException {
+        synchronized (s) { // same monitor as cancel(), so that a deleted object is never written
+            if (dead.contains(s))
+                return;
+            WRITING.set(true);
+            try {
+                s.save();
+                written.incrementAndGet();
+            } finally {
+                WRITING.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of saves that were deferred by {@link #defer(Saveable)}.
+     */
+    public static long getSavesRequested() {
+        return requested.get();
+    }
+
+    /**
+     * Number of deferred saves that actually hit the disk.
+     */
+    public static long getSavesWritten() {
+        return written.get();
+    }
+
+    /**
+     * Number of writes that were avoided by coalescing or cancellation.
+     */
+    public static long getSavesAvoided() {
+        synchronized (pending) {
+            return requested.get() - written.get() - pending.size();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), DeferredSaver.class.getSimpleName()));
+        }
+        return executor;
+    }
+
+    /**
+     * Starts deferring saves again, when Jenkins starts after a {@link #shutdown()} in the same JVM.
+     */
+    @Initializer
+    public static void start() {
+        synchronized (pending) {
+            shutDown = false;
+        }
+    }
+
+    /**
+     * Writes out everything that is still pending, and stops the I/O thread.
+     * Saves requested from then on are written by their callers.
+     */
+    @Terminator
+    public static void shutdown() {
+        synchronized (pending) {
+            shutDown = true;
+        }
+        try {
+            flushAll();
+        } catch (IOException e) {
+            // already logged
+        }
+        synchronized (DeferredSaver.class) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+        try {
+            // whatever a flush interrupted by shutdownNow() left behind
+            flushAll();
+        } catch (IOException e) {
+            // already logged
+        }
+        synchronized (pending) {
+            flushScheduled = false;
+            failed.clear();
+        }
+    }
+
+    /**
+     * Set to true to defer and coalesce saves of participating objects.
+     */
+    public static boolean ENABLED = SystemProperties.getBoolean(DeferredSaver.class.getName() + ".enabled");
+
+    /**
+     * How long, in milliseconds, saves of the same object are coalesced before being written.
+     */
+    public static int WINDOW = SystemProperties.getInteger(DeferredSaver.class.getName() + ".window", 1000);
+
+    private static final Logger LOGGER = Logger.getLogger(DeferredSaver.class.getName());
+}
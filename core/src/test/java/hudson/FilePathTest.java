@@ -26,6 +26,7 @@ package hudson;
 import hudson.FilePath.TarCompression;
 import hudson.model.TaskListener;
 import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
 import hudson.util.NullStream;
 import hudson.util.StreamTaskListener;
 import java.io.ByteArrayInputStream;
@@ -55,6 +56,7 @@ import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.NullOutputStream;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Chmod;
@@ -86,6 +88,35 @@ public class FilePathTest {
         assertTrue("could not delete target " + tmp.getPath(), tmp.delete());
     }
 
+    @Test public void chunkedRemoteStreams() throws Exception {
+        int chunkSize = FilePath.CHUNK_SIZE;
+        // too small, so the minimum chunk size is used, which still takes several chunks
+        FilePath.CHUNK_SIZE = 0;
+        try {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 10000; i++) {
+                content.append(i).append('\n');
+            }
+            FilePath f = new FilePath(channels.french, new File(temp.getRoot(), "a/f.txt").getPath());
+            OutputStream out = f.write();
+            try {
+                out.write(content.toString().getBytes("US-ASCII"));
+            } finally {
+                out.close();
+            }
+            channels.french.syncIO(); // writes are asynchronous
+            assertEquals(content.toString(), f.readToString());
+            assertEquals(content.substring(100), IOUtils.toString(f.readFromOffset(100), "US-ASCII"));
+
+            // copied on the agent itself
+            FilePath g = new FilePath(channels.french, new File(temp.getRoot(), "b/g.txt").getPath());
+            f.copyTo(g);
+            assertEquals(content.toString(), FileUtils.readFileToString(new File(g.getRemote()), "US-ASCII"));
+        } finally {
+            FilePath.CHUNK_SIZE = chunkSize;
+        }
+    }
+
     /**
      * An attempt to reproduce the file descriptor leak.
      * If this operation leaks a file descriptor, 2500 should be enough, I think.
@@ -210,6 +241,25 @@ public class FilePathTest {
             assertEquals(1, fp.copyRecursiveTo(new FilePath(dst)));
     }
 
+    @Test public void parallelCopyRecursiveTo() throws Exception {
+        File src = temp.newFolder("src");
+        File dst = temp.newFolder("dst");
+        for (int i = 0; i < 200; i++) {
+            FileUtils.writeStringToFile(new File(src, "d" + (i % 7) + "/f" + i + ".txt"), "content of " + i);
+        }
+        FileUtils.writeByteArrayToFile(new File(src, "big.bin"), new byte[1024 * 1024]);
+        FilePath from = new FilePath(channels.french, src.getPath());
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        for (TarCompression compression : TarCompression.values()) {
+            FileUtils.cleanDirectory(dst);
+            assertEquals(201, from.copyRecursiveTo(new DirScanner.Glob("**", null), new FilePath(dst), "**", 4, compression, new StreamTaskListener(log)));
+            assertEquals("content of 123", FileUtils.readFileToString(new File(dst, "d4/f123.txt")));
+            assertEquals(1024 * 1024, new File(dst, "big.bin").length());
+            assertEquals("d0 to d6 and big.bin", 8, dst.list().length);
+        }
+        assertTrue(log.toString(), log.toString().contains("using 4 streams"));
+    }
+
     @Issue("JENKINS-9540")
     @Test public void errorMessageInRemoteCopyRecursive() throws Exception {
         File src = temp.newFolder("src");
@@ -370,6 +370,44 @@ public class UtilTest {
         assertFalse("dir exists", dir.exists());
     }
 
+    @Test
+    public void testDeleteRecursive_parallel() throws Exception {
+        final File dir = tmp.newFolder();
+        for (int i = 0; i < 20; i++) {
+            File d = new File(dir, "d" + i + "/sub/subsub");
+            assertTrue(d.mkdirs());
+            for (int j = 0; j < 20; j++) {
+                mkfiles(new File(d, "f" + j), new File(d.getParentFile(), "f" + j));
+            }
+        }
+        final File outside = tmp.newFolder();
+        final File kept = new File(outside, "kept");
+        mkfiles(kept);
+        final boolean linked = !Functions.isWindows();
+        if (linked) {
+            Util.createSymlink(new File(dir, "d0"), outside.getAbsolutePath(), "link", StreamTaskListener.fromStdout());
+        }
+        final int defaultDeletionThreads = Util.DELETION_THREADS;
+        final int defaultThreshold = Util.PARALLEL_DELETION_THRESHOLD;
+        try {
+            // sequential, small enough to stay on the calling thread, and large enough to go parallel
+            for (int[] config : new int[][] {{1, 0}, {4, 1000000}, {4, 10}}) {
+                Util.DELETION_THREADS = config[0];
+                Util.PARALLEL_DELETION_THRESHOLD = config[1];
+                File copy = tmp.newFolder();
+                FileUtils.copyDirectory(dir, copy);
+                Util.deleteRecursive(copy);
+                assertFalse("deleted with " + config[0] + " threads after " + config[1] + " entries", copy.exists());
+            }
+            Util.deleteRecursive(dir);
+            assertFalse("dir exists", dir.exists());
+            assertTrue("symlinks are not followed", kept.exists());
+        } finally {
+            Util.DELETION_THREADS = defaultDeletionThreads;
+            Util.PARALLEL_DELETION_THRESHOLD = defaultThreshold;
+        }
+    }
+
     @Test
     public void testDeleteRecursive_onWindows() throws Exception {
         Assume.assumeTrue(Functions.isWindows());
@@ -0,0 +1,126 @@
+package hudson;
+
+import hudson.util.XStream2;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compares the time and memory {@link XmlFile#read()} takes with the XPP and the StAX drivers
+ * (see {@link XmlFile#USE_STAX}) on records shaped like {@code build.xml}.
+ *
+ * <p>
+ * Not a test, as timings depend on the machine. Run it with the number of files to read
+ * and the number of rounds, for example {@code 1000000 3} to approach a startup loading a million builds:
+ * the first rounds warm up the JIT, the last one is the one to look at.
+ */
+public class XmlFileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        File dir = File.createTempFile("xmlfile", "benchmark");
+        FileUtils.forceDelete(dir);
+        try {
+            XStream2 xs = new XStream2();
+            List<XmlFile> xmls = new ArrayList<XmlFile>(files);
+            for (int i = 0; i < files; i++) {
+                XmlFile f = new XmlFile(xs, new File(dir, (i / 1000) + "/" + i + "/build.xml"));
+                f.write(new Build(i));
+                xmls.add(f);
+            }
+
+            for (int r = 1; r <= rounds; r++) {
+                for (boolean stax : new boolean[] {false, true}) {
+                    XmlFile.USE_STAX = stax;
+                    System.gc();
+                    long allocated = allocatedBytes();
+                    long start = System.nanoTime();
+                    for (XmlFile f : xmls) {
+                        f.read();
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    allocated = allocatedBytes() - allocated;
+                    System.out.printf("round %d, %s: %d files in %d ms, %d bytes allocated per file%n",
+                            r, stax ? "StAX" : "XPP ", files, elapsed / 1000000, allocated / files);
+                }
+            }
+        } finally {
+            XmlFile.USE_STAX = false;
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Bytes allocated by this thread so far, or 0 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * The fields a typical build record has, and a few actions with causes and parameters.
+     */
+    public static class Build {
+        int number;
+        long startTime;
+        String result = "SUCCESS";
+        long duration;
+        String charset = "UTF-8";
+        String keepLog = "false";
+        String builtOn = "agent-7";
+        String workspace = "/home/jenkins/workspace/some-folder/some-job";
+        String hudsonVersion = "2.6";
+        List<Object> actions = new ArrayList<Object>();
+
+        Build(int number) {
+            this.number = number;
+            this.startTime = 1460000000000L + number * 60000L;
+            this.duration = 45000 + number % 1000;
+            CauseAction causes = new CauseAction();
+            causes.causes.add(new UserCause("alice", "Alice Example"));
+            actions.add(causes);
+            ParametersAction parameters = new ParametersAction();
+            for (int i = 0; i < 5; i++) {
+                parameters.parameters.add(new StringParameter("PARAM_" + i, "value " + number + " & <" + i + ">"));
+            }
+            actions.add(parameters);
+        }
+    }
+
+    public static class CauseAction {
+        List<Object> causes = new ArrayList<Object>();
+    }
+
+    public static class UserCause {
+        String userId;
+        String userName;
+
+        UserCause(String userId, String userName) {
+            this.userId = userId;
+            this.userName = userName;
+        }
+    }
+
+    public static class ParametersAction {
+        List<StringParameter> parameters = new ArrayList<StringParameter>();
+    }
+
+    public static class StringParameter {
+        String name;
+        String value;
+
+        StringParameter(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package hudson;
+
+import hudson.util.XStream2;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class XmlFileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void resetDriver() {
+        XmlFile.USE_STAX = false;
+    }
+
+    @Test
+    public void staxRoundTrip() throws Exception {
+        XmlFile.USE_STAX = true;
+        XmlFile f = new XmlFile(new XStream2(), new File(tmp.getRoot(), "thing.xml"));
+        Thing t = new Thing();
+        t.name = "k chybě & <co>";
+        t.values.add(3);
+        t.values.add(7);
+        f.write(t);
+
+        Thing r = (Thing) f.read();
+        assertEquals(t.name, r.name);
+        assertEquals(t.values, r.values);
+
+        Thing existing = new Thing();
+        assertSame(existing, f.unmarshal(existing));
+        assertEquals(t.name, existing.name);
+    }
+
+    @Test
+    public void staxIgnoresExternalEntities() throws Exception {
+        XmlFile.USE_STAX = true;
+        File secret = tmp.newFile("secret.txt");
+        FileUtils.writeStringToFile(secret, "s3cr3t");
+        File xml = tmp.newFile("thing.xml");
+        FileUtils.writeStringToFile(xml, "<?xml version='1.0' encoding='UTF-8'?>\n"
+                + "<!DOCTYPE x [<!ENTITY e SYSTEM '" + secret.toURI() + "'>]>\n"
+                + "<hudson.XmlFileTest_-Thing><name>&e;</name></hudson.XmlFileTest_-Thing>");
+        try {
+            Thing r = (Thing) new XmlFile(new XStream2(), xml).read();
+            assertFalse(String.valueOf(r.name).contains("s3cr3t"));
+        } catch (IOException e) {
+            // rejecting the document outright is fine too
+        }
+    }
+
+    public static class Thing {
+        String name;
+        List<Integer> values = new ArrayList<Integer>();
+    }
+}
@@ -0,0 +1,62 @@
+package hudson.console;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LineTransformationOutputStreamTest {
+
+    @Test
+    public void bulkWritesMatchSingleBytes() throws Exception {
+        Random r = new Random(1);
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            // plenty of LFs, some CRs, and some long lines
+            data[i] = r.nextInt(40) == 0 ? (byte) '\n' : r.nextInt(50) == 0 ? (byte) '\r' : (byte) ('a' + r.nextInt(26));
+        }
+
+        Recorder single = new Recorder();
+        for (byte b : data) {
+            single.write(b);
+        }
+        single.close();
+
+        Recorder bulk = new Recorder();
+        int off = 0;
+        while (off < data.length) {
+            int len = Math.min(r.nextInt(9000), data.length - off);
+            bulk.write(data, off, len);
+            off += len;
+        }
+        bulk.close();
+
+        assertEquals(single.lines, bulk.lines);
+        assertArrayEquals(data, bulk.all.toByteArray());
+    }
+
+    @Test
+    public void linesEndWithLf() throws Exception {
+        Recorder rec = new Recorder();
+        rec.write("one\ntwo\r\nthr".getBytes("US-ASCII"));
+        assertEquals("[one\n, two\r\n]", rec.lines.toString());
+        rec.write("ee\n\nfour".getBytes("US-ASCII"));
+        rec.forceEol();
+        assertEquals("[one\n, two\r\n, three\n, \n, four]", rec.lines.toString());
+    }
+
+    private static class Recorder extends LineTransformationOutputStream {
+        final List<String> lines = new ArrayList<String>();
+        final ByteArrayOutputStream all = new ByteArrayOutputStream();
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            lines.add(new String(b, 0, len, "US-ASCII"));
+            all.write(b, 0, len);
+        }
+    }
+}
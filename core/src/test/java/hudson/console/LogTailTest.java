@@ -0,0 +1,120 @@
+package hudson.console;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class LogTailTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void keepsLastBytes() throws Exception {
+        LogTail tail = new LogTail(8);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        OutputStream out = tail.decorate(file);
+        assertEquals(0, tail.getStart()); // start following before anything is written
+
+        out.write("hello ".getBytes("US-ASCII"));
+        assertEquals(6, tail.length());
+        assertEquals(0, tail.getStart());
+        assertEquals("llo ", read(tail, 2, 100));
+
+        out.write("world".getBytes("US-ASCII")); // wraps around
+        assertEquals(11, tail.length());
+        assertEquals(3, tail.getStart());
+        assertEquals(-1, tail.read(2, new byte[10], 0, 10));
+        assertEquals("lo world", read(tail, 3, 100));
+        assertEquals("wor", read(tail, 6, 3));
+        assertEquals(0, tail.read(11, new byte[10], 0, 10));
+
+        out.write("0123456789abc".getBytes("US-ASCII")); // larger than the ring
+        assertEquals(24, tail.length());
+        assertEquals("6789abc", read(tail, 17, 100));
+        assertEquals("hello world0123456789abc", file.toString("US-ASCII"));
+
+        assertFalse(tail.isClosed());
+        out.close();
+        assertTrue(tail.isClosed());
+    }
+
+    @Test
+    public void retainsNothingUntilRead() throws Exception {
+        LogTail tail = new LogTail(8);
+        OutputStream out = tail.decorate(new ByteArrayOutputStream());
+
+        out.write("hello ".getBytes("US-ASCII"));
+        assertEquals(6, tail.length());
+        // what was written before the first reader is only in the file
+        assertEquals(6, tail.getStart());
+        assertEquals(-1, tail.read(2, new byte[10], 0, 10));
+
+        out.write("world".getBytes("US-ASCII"));
+        assertEquals(6, tail.getStart());
+        assertEquals("world", read(tail, 6, 100));
+
+        out.write("0123".getBytes("US-ASCII"));
+        assertEquals(7, tail.getStart());
+        assertEquals("orld0123", read(tail, 7, 100));
+    }
+
+    @Test
+    public void await() throws Exception {
+        final LogTail tail = new LogTail(16);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                tail.append(new byte[] {'x'}, 0, 1);
+            }
+        };
+        t.start();
+        tail.await(0, 10000);
+        assertEquals(1, tail.length());
+        t.join();
+    }
+
+    @Test
+    public void annotatedLargeTextReadsCompleteLinesFromTail() throws Exception {
+        File log = tmp.newFile();
+        LogTail tail = new LogTail(8);
+        OutputStream out = tail.decorate(new FileOutputStream(log));
+        Charset cs = Charset.forName("US-ASCII");
+
+        out.write("first line\nab\ncd".getBytes(cs));
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        // offset 5 is no longer in memory, so this comes from the file
+        long pos = new AnnotatedLargeText<Void>(log, cs, false, null, tail).writeRawLogTo(5, buf);
+        assertEquals(14, pos);
+        assertEquals(" line\nab\n", buf.toString("US-ASCII"));
+
+        out.write("e\n".getBytes(cs));
+        buf.reset();
+        pos = new AnnotatedLargeText<Void>(log, cs, false, null, tail).writeRawLogTo(pos, buf);
+        assertEquals(18, pos);
+        assertEquals("cde\n", buf.toString("US-ASCII"));
+
+        out.close();
+        buf.reset();
+        assertEquals(18, new AnnotatedLargeText<Void>(log, cs, true, null, tail).writeRawLogTo(14, buf));
+        assertEquals("cde\n", buf.toString("US-ASCII"));
+    }
+
+    private static String read(LogTail tail, long offset, int len) throws Exception {
+        byte[] buf = new byte[len];
+        int n = tail.read(offset, buf, 0, len);
+        return new String(buf, 0, n, "US-ASCII");
+    }
+}
@@ -0,0 +1,164 @@
+package hudson.slaves;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AgentAdmissionTest {
+
+    private int oldMax, oldTimeout;
+    private ExecutorService pool = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() {
+        oldMax = AgentAdmission.MAX_CONCURRENT;
+        oldTimeout = AgentAdmission.TIMEOUT;
+        AgentAdmission.MAX_CONCURRENT = 1;
+    }
+
+    @After
+    public void tearDown() {
+        AgentAdmission.MAX_CONCURRENT = oldMax;
+        AgentAdmission.TIMEOUT = oldTimeout;
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void oneAtATime() throws Exception {
+        final AgentAdmission a = AgentAdmission.get();
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        AgentAdmission.Ticket first = a.admit("first", new PrintStream(log));
+        assertEquals("", log.toString());
+
+        Future<AgentAdmission.Ticket> second = pool.submit(new Callable<AgentAdmission.Ticket>() {
+            @Override public AgentAdmission.Ticket call() throws Exception {
+                return a.admit("second", new PrintStream(log, true));
+            }
+        });
+        while (a.getPending().isEmpty()) {
+            Thread.sleep(10);
+        }
+        assertFalse(second.isDone());
+        assertEquals("second", a.getPending().get(0).getName());
+        assertEquals("first", a.getAdmitted().get(0).getName());
+        assertTrue(log.toString(), log.toString().contains("Waiting for 1 other agents"));
+
+        long onboarded = a.getOnboarding().getCount();
+        first.release();
+        AgentAdmission.Ticket t = second.get();
+        assertEquals("second", a.getAdmitted().get(0).getName());
+        assertTrue(a.getPending().isEmpty());
+        t.release();
+        assertTrue(a.getAdmitted().isEmpty());
+        assertEquals(onboarded + 2, a.getOnboarding().getCount());
+    }
+
+    @Test
+    public void leaveTheLine() throws Exception {
+        final AgentAdmission a = AgentAdmission.get();
+        AgentAdmission.Ticket first = a.admit("first", new PrintStream(new ByteArrayOutputStream()));
+        final AgentAdmission.Ticket second = a.enqueue("second");
+        assertFalse(second.isAdmitted());
+        Future<?> waiting = pool.submit(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                second.await(new PrintStream(new ByteArrayOutputStream()));
+                return null;
+            }
+        });
+        // as when the channel of the agent is closed
+        second.release();
+        try {
+            waiting.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(a.getPending().isEmpty());
+
+        AgentAdmission.Ticket third = a.enqueue("third");
+        assertFalse(third.isAdmitted());
+        first.release();
+        assertTrue(third.isAdmitted());
+        third.release();
+    }
+
+    @Test
+    public void hungAgentsDoNotBlockOthers() throws Exception {
+        AgentAdmission.TIMEOUT = 100;
+        AgentAdmission a = AgentAdmission.get();
+        AgentAdmission.Ticket hung = a.admit("hung", new PrintStream(new ByteArrayOutputStream()));
+        AgentAdmission.Ticket next = a.admit("next", new PrintStream(new ByteArrayOutputStream()));
+        assertTrue(hung.getElapsed() >= 100);
+        assertEquals(2, a.getAdmitted().size());
+        next.release();
+        hung.release();
+        assertTrue(a.getAdmitted().isEmpty());
+    }
+
+    @Test
+    public void continueWithoutWaiting() throws Exception {
+        AgentAdmission a = AgentAdmission.get();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        AgentAdmission.Ticket first = a.admit("first", new PrintStream(log));
+        final AgentAdmission.Ticket second = a.enqueue("second");
+        final AgentAdmission.Ticket third = a.enqueue("third");
+        final CountDownLatch ran = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        second.whenAdmitted(new PrintStream(log, true), pool, new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+                second.release();
+                ran.countDown();
+            }
+        });
+        third.whenAdmitted(new PrintStream(log, true), pool, new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+        assertTrue(log.toString(), log.toString().contains("Waiting for 1 other agents"));
+        // as when the channel of the agent is closed before its turn
+        third.release();
+        assertEquals(0, runs.get());
+
+        first.release();
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        assertTrue(a.getAdmitted().isEmpty());
+        assertTrue(a.getPending().isEmpty());
+    }
+
+    @Test
+    public void continuationsDoNotWaitForHungAgents() throws Exception {
+        AgentAdmission.TIMEOUT = 100;
+        AgentAdmission a = AgentAdmission.get();
+        AgentAdmission.Ticket hung = a.admit("hung", new PrintStream(new ByteArrayOutputStream()));
+        final AgentAdmission.Ticket next = a.enqueue("next");
+        final CountDownLatch ran = new CountDownLatch(1);
+        next.whenAdmitted(new PrintStream(new ByteArrayOutputStream()), pool, new Runnable() {
+            public void run() {
+                next.release();
+                ran.countDown();
+            }
+        });
+        // nobody waits in await(), so the timer has to let it in
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        hung.release();
+        assertTrue(a.getAdmitted().isEmpty());
+    }
+}
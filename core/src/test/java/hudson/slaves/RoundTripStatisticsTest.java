@@ -0,0 +1,29 @@
+package hudson.slaves;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RoundTripStatisticsTest {
+
+    @Test
+    public void histogram() {
+        RoundTripStatistics s = new RoundTripStatistics();
+        assertEquals(-1, s.getLastMillis());
+        assertEquals(-1, s.getRecentMillis(Long.MAX_VALUE));
+
+        s.record(3);
+        s.record(10);
+        s.record(250);
+        s.record(60000);
+        s.skip();
+
+        assertArrayEquals(new long[] {1, 1, 1, 0, 1}, s.getHistogram());
+        assertEquals(4, s.getCount());
+        assertEquals(1, s.getSkipped());
+        assertEquals(60000, s.getMaxMillis());
+        assertEquals((3 + 10 + 250 + 60000) / 4, s.getAverageMillis());
+        assertEquals(60000, s.getLastMillis());
+        assertEquals(60000, s.getRecentMillis(60000));
+    }
+}
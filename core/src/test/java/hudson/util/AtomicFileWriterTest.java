@@ -0,0 +1,75 @@
+package hudson.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class AtomicFileWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void eachDurability() throws Exception {
+        for (AtomicFileWriter.Durability d : AtomicFileWriter.Durability.values()) {
+            File f = new File(tmp.getRoot(), d.name() + ".txt");
+            write(f, "old", d);
+            write(f, "new " + d, d);
+            assertEquals("new " + d, FileUtils.readFileToString(f, "UTF-8"));
+        }
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        long before = sum(AtomicFileWriter.getCommitLatencyHistogram());
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 32; i++) {
+                final File f = new File(tmp.newFolder(), "file" + i);
+                final String content = "content " + i;
+                futures.add(es.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        write(f, content, AtomicFileWriter.Durability.GROUP_COMMIT);
+                        assertEquals(content, FileUtils.readFileToString(f, "UTF-8"));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            es.shutdown();
+        }
+        assertTrue(sum(AtomicFileWriter.getCommitLatencyHistogram()) >= before + 32);
+    }
+
+    private static void write(File f, String content, AtomicFileWriter.Durability d) throws Exception {
+        AtomicFileWriter w = new AtomicFileWriter(f, "UTF-8", d);
+        try {
+            w.write(content);
+            w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+
+    private static long sum(long[] histogram) {
+        long r = 0;
+        for (long l : histogram) {
+            r += l;
+        }
+        return r;
+    }
+}
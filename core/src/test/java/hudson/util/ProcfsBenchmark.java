@@ -0,0 +1,64 @@
+package hudson.util;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures how long {@link ProcessTree.Linux} takes to snapshot a synthetic procfs
+ * (reading every {@code stat}) and to look for a build's cookie in it (scanning every {@code environ}),
+ * as the process killer does at the end of each build.
+ *
+ * <p>
+ * Not a test, as timings depend on the machine. Run it with the number of processes
+ * and the number of rounds, for example {@code 10000 3} for a busy agent:
+ * the first rounds warm up the JIT, the last one is the one to look at.
+ */
+public class ProcfsBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int processes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Map<String,String> cookie = Collections.singletonMap("JENKINS_NODE_COOKIE", "c00k1e");
+
+        File procfs = File.createTempFile("procfs", "benchmark");
+        FileUtils.forceDelete(procfs);
+        try {
+            for (int pid = 1; pid <= processes; pid++) {
+                ProcfsSnapshotTest.writeProcess(procfs, pid, pid / 2, pid, pid % 100 == 0 ? "c00k1e" : "other");
+            }
+
+            for (int r = 1; r <= rounds; r++) {
+                System.gc();
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                ProcessTree tree = new ProcessTree.Linux(procfs);
+                long parsed = System.nanoTime();
+                long parseAllocated = allocatedBytes() - allocated;
+                int matching = ProcfsSnapshotTest.countMatching(tree, cookie);
+                long scanned = System.nanoTime();
+                long scanAllocated = allocatedBytes() - allocated - parseAllocated;
+                System.out.printf("round %d: stat of %d processes in %d ms (%d bytes allocated per process), "
+                                + "environ scan found %d in %d ms (%d bytes allocated per process)%n",
+                        r, processes, (parsed - start) / 1000000, parseAllocated / processes,
+                        matching, (scanned - parsed) / 1000000, scanAllocated / processes);
+            }
+        } finally {
+            FileUtils.deleteDirectory(procfs);
+        }
+    }
+
+    /**
+     * Bytes allocated by this thread so far, or 0 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,98 @@
+package hudson.util;
+
+import hudson.util.ProcessTree.OSProcess;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Takes {@link ProcessTree.Linux} snapshots of a synthetic procfs.
+ * See {@link ProcfsBenchmark} for the same with thousands of processes.
+ */
+public class ProcfsSnapshotTest {
+
+    private static final int PROCESSES = 20;
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void snapshots() throws Exception {
+        File procfs = tmp.newFolder("proc");
+        Map<String,String> cookie = Collections.singletonMap("JENKINS_NODE_COOKIE", "c00k1e");
+        for (int pid = 1; pid <= PROCESSES; pid++) {
+            writeProcess(procfs, pid, pid / 2, pid, pid % 5 == 0 ? "c00k1e" : "other");
+        }
+
+        ProcessTree tree = new ProcessTree.Linux(procfs);
+        assertEquals(PROCESSES / 5, countMatching(tree, cookie));
+        assertEquals(5, tree.get(10).getParent().getPid());
+        assertEquals("java x) -jar", ((ProcessTree.UnixProcess) tree.get(10)).getArguments().get(0));
+
+        // the parent is read again, as it changes when the original one dies
+        writeProcess(procfs, 10, 1, 10, null);
+        assertEquals(1, new ProcessTree.Linux(procfs).get(10).getParent().getPid());
+    }
+
+    @Test public void environmentChangesOnExec() throws Exception {
+        File procfs = tmp.newFolder("proc");
+        Map<String,String> cookie = Collections.singletonMap("JENKINS_NODE_COOKIE", "c00k1e");
+
+        // between fork and exec, the child still has the environment of its parent
+        writeProcess(procfs, 1, 0, 1, "other");
+        assertEquals(0, countMatching(new ProcessTree.Linux(procfs), cookie));
+        // same PID and start time after exec, but a different environment
+        writeProcess(procfs, 1, 0, 1, "c00k1e");
+        assertEquals(1, countMatching(new ProcessTree.Linux(procfs), cookie));
+        writeProcess(procfs, 1, 0, 1, "other");
+        assertEquals(0, countMatching(new ProcessTree.Linux(procfs), cookie));
+    }
+
+    @Test public void caseInsensitiveLookup() throws Exception {
+        File procfs = tmp.newFolder("proc");
+        writeProcess(procfs, 1, 0, 1, "c00k1e");
+        OSProcess p = new ProcessTree.Linux(procfs).get(1);
+        assertTrue(p.hasMatchingEnvVars(Collections.singletonMap("jenkins_node_cookie", "c00k1e")));
+        assertFalse(p.hasMatchingEnvVars(Collections.singletonMap("JENKINS_NODE", "c00k1e")));
+        assertEquals("c00k1e", p.getEnvironmentVariables().get("JENKINS_NODE_COOKIE"));
+    }
+
+    static int countMatching(ProcessTree tree, Map<String,String> model) {
+        int n = 0;
+        for (OSProcess p : tree) {
+            if (p.hasMatchingEnvVars(model)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Writes what {@link ProcessTree.Linux} reads of a process, with the given cookie or no environ at all.
+     */
+    static void writeProcess(File procfs, int pid, int ppid, long startTime, String cookie) throws IOException {
+        File dir = new File(procfs, String.valueOf(pid));
+        FileUtils.forceMkdir(dir);
+        // the command name can contain spaces and parentheses
+        FileUtils.writeStringToFile(new File(dir, "stat"), pid + " (java x) -jar) S " + ppid
+                + " 1 1 0 -1 4194560 100 0 0 0 10 5 0 0 20 0 1 0 " + startTime
+                + " 1000000 100 18446744073709551615 1 1 0 0 0 0 0 0 0 17 0 0 0 0 0 0\n", "US-ASCII");
+        FileUtils.writeStringToFile(new File(dir, "cmdline"), "java x) -jar\0", "US-ASCII");
+        File environ = new File(dir, "environ");
+        if (cookie == null) {
+            FileUtils.deleteQuietly(environ);
+        } else {
+            StringBuilder env = new StringBuilder();
+            for (int i = 0; i < 40; i++) {
+                env.append("VARIABLE_").append(i).append("=some value that takes a bit of room\0");
+            }
+            env.append("JENKINS_NODE_COOKIE=").append(cookie).append('\0');
+            FileUtils.writeStringToFile(environ, env.toString(), "US-ASCII");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package hudson.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ZipStreamWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void readableByJavaUtilZip() throws Exception {
+        byte[] small = "hello world\n".getBytes("US-ASCII");
+        // compressible, and spanning several chunks
+        byte[] large = new byte[3 * 1024 * 1024 + 12345];
+        Random r = new Random(0);
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) ("abcdefgh".charAt(r.nextInt(8)));
+        }
+
+        File zip = tmp.newFile("test.zip");
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        OutputStream out = new FileOutputStream(zip);
+        try {
+            ZipStreamWriter w = new ZipStreamWriter(out, Charset.forName("UTF-8"), Deflater.DEFAULT_COMPRESSION);
+            w.writeUncompressed("dir/stored.txt", 1400000000000L, small.length, new ByteArrayInputStream(small));
+            w.writeUncompressed("dir/stored.bin", 1400000000000L, large.length, new ByteArrayInputStream(large));
+            w.writeDeflated("dir/large.bin", 1400000000000L, large.length, new ByteArrayInputStream(large), pool);
+            w.writeDeflated("dir/sequential.bin", 1400000000000L, large.length, new ByteArrayInputStream(large), null);
+            w.writeDeflated("empty", 0, 0, new ByteArrayInputStream(new byte[0]), pool);
+            w.writeDeflated("d\u00e9j\u00e0 vu.txt", 1400000000000L, small.length, new ByteArrayInputStream(small), null);
+            w.close();
+        } finally {
+            out.close();
+            pool.shutdown();
+        }
+        assertTrue("was compressed", zip.length() < large.length);
+
+        ZipFile zf = new ZipFile(zip);
+        try {
+            assertArrayEquals(small, IOUtils.toByteArray(zf.getInputStream(zf.getEntry("dir/stored.txt"))));
+            ZipEntry e = zf.getEntry("dir/stored.bin");
+            assertArrayEquals(large, IOUtils.toByteArray(zf.getInputStream(e)));
+            assertTrue("was not compressed", e.getCompressedSize() >= e.getSize());
+            assertTrue("but has little overhead", e.getCompressedSize() < e.getSize() + e.getSize() / 1000);
+            assertArrayEquals(large, IOUtils.toByteArray(zf.getInputStream(zf.getEntry("dir/large.bin"))));
+            assertArrayEquals(large, IOUtils.toByteArray(zf.getInputStream(zf.getEntry("dir/sequential.bin"))));
+            assertEquals(0, IOUtils.toByteArray(zf.getInputStream(zf.getEntry("empty"))).length);
+            assertArrayEquals(small, IOUtils.toByteArray(zf.getInputStream(zf.getEntry("d\u00e9j\u00e0 vu.txt"))));
+            assertEquals(zf.getEntry("dir/large.bin").getTime(), 1400000000000L / 2000 * 2000);
+        } finally {
+            zf.close();
+        }
+
+        // also readable front to back, as unzipping a download in flight would
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(zip), Charset.forName("UTF-8"));
+        try {
+            int count = 0;
+            ZipEntry e;
+            while ((e = zis.getNextEntry()) != null) {
+                IOUtils.toByteArray(zis);
+                count++;
+            }
+            assertEquals(6, count);
+        } finally {
+            zis.close();
+        }
+    }
+
+    @Test
+    public void zip64WhenLengthIsUnknown() throws Exception {
+        byte[] data = "hello world\n".getBytes("US-ASCII");
+        File zip = tmp.newFile("test.zip");
+        OutputStream out = new FileOutputStream(zip);
+        try {
+            ZipStreamWriter w = new ZipStreamWriter(out, Charset.forName("UTF-8"), Deflater.DEFAULT_COMPRESSION);
+            w.writeDeflated("unknown.txt", 1400000000000L, -1, new ByteArrayInputStream(data), null);
+            w.close();
+        } finally {
+            out.close();
+        }
+
+        // the local header announces zip64, so the sizes in the data descriptor take 8 bytes each
+        byte[] bytes = FileUtils.readFileToByteArray(zip);
+        assertEquals(45, bytes[4]);
+        assertEquals(0xFF, bytes[18] & 0xFF);
+        int nameLength = bytes[26];
+        assertEquals(20, bytes[28]);
+        assertEquals(0x0001, bytes[30 + nameLength]);
+
+        ZipFile zf = new ZipFile(zip);
+        try {
+            assertArrayEquals(data, IOUtils.toByteArray(zf.getInputStream(zf.getEntry("unknown.txt"))));
+        } finally {
+            zf.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package jenkins.model;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.SortedMap;
+import jenkins.util.VirtualFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ArtifactIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void browseWithoutTouchingFiles() throws Exception {
+        File archive = tmp.newFolder("archive");
+        FileUtils.writeStringToFile(new File(archive, "top.txt"), "top");
+        FileUtils.writeStringToFile(new File(archive, "dir/a b.txt"), "hello");
+        FileUtils.writeStringToFile(new File(archive, "dir/sub/c.jar"), "jar");
+        new File(archive, "dir/sub/c.jar").setLastModified(1400000000000L);
+
+        File indexFile = new File(tmp.getRoot(), "archive-index.txt");
+        ArtifactIndex.write(VirtualFile.forFile(archive), indexFile);
+        SortedMap<String,ArtifactIndex.Stat> index = ArtifactIndex.read(indexFile);
+        assertEquals(Arrays.asList("dir/a b.txt", "dir/sub/c.jar", "top.txt"), Arrays.asList(index.keySet().toArray()));
+
+        VirtualFile root = new ArtifactIndex.IndexVF(index, archive, "");
+        VirtualFile c = root.child("dir").child("sub").child("c.jar");
+        // the index is what gets consulted from now on
+        FileUtils.writeStringToFile(new File(archive, "dir/sub/c.jar"), "a much longer jar");
+        assertEquals(3, c.length());
+        assertEquals(1400000000000L, c.lastModified());
+        assertTrue(c.isFile());
+        assertTrue(root.child("dir/sub").isDirectory());
+        assertEquals(2, root.list().length);
+        assertEquals(Arrays.asList("sub/c.jar"), Arrays.asList(root.child("dir").list("**/*.jar")));
+        assertEquals("hello", IOUtils.toString(root.child("dir/a b.txt").open()));
+        assertEquals(VirtualFile.forFile(archive).child("dir/sub").toURI(), c.getParent().toURI());
+
+        // added behind the back of the index
+        FileUtils.writeStringToFile(new File(archive, "dir/sub/late.txt"), "late");
+        assertTrue(root.child("dir/sub/late.txt").isFile());
+        assertEquals("late", IOUtils.toString(root.child("dir").child("sub").child("late.txt").open()));
+        assertFalse(root.child("dir/sub/missing.txt").exists());
+    }
+}
@@ -0,0 +1,118 @@
+package jenkins.model;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import jenkins.util.VirtualFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class DeduplicatingArtifactManagerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String HASH = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824"; // "hello"
+
+    @Test
+    public void referenceCounting() throws Exception {
+        ArtifactBlobStore store = new ArtifactBlobStore(tmp.newFolder());
+        assertFalse(store.retain(HASH, 5));
+
+        File f = store.createTempFile();
+        FileUtils.writeStringToFile(f, "hello", "US-ASCII");
+        store.put(f, HASH);
+        assertFalse(f.exists());
+        assertEquals(1, store.getReferences(HASH));
+
+        assertFalse("length mismatch", store.retain(HASH, 6));
+        assertTrue(store.retain(HASH, 5));
+        f = store.createTempFile();
+        FileUtils.writeStringToFile(f, "hello", "US-ASCII");
+        store.put(f, HASH); // raced with another build
+        assertFalse(f.exists());
+        assertEquals(3, store.getReferences(HASH));
+
+        store.release(HASH);
+        store.release(HASH);
+        assertTrue(store.getBlob(HASH).isFile());
+        store.release(HASH);
+        assertFalse(store.getBlob(HASH).exists());
+        assertEquals(0, store.getReferences(HASH));
+    }
+
+    @Test
+    public void browseManifest() throws Exception {
+        ArtifactBlobStore store = new ArtifactBlobStore(tmp.newFolder());
+        File f = store.createTempFile();
+        FileUtils.writeStringToFile(f, "hello", "US-ASCII");
+        store.put(f, HASH);
+
+        File manifestFile = tmp.newFile();
+        FileUtils.writeStringToFile(manifestFile,
+                HASH + " 5 1000 top.txt\n" +
+                HASH + " 5 2000 dir/a.jar\n" +
+                HASH + " 5 3000 dir/sub/b with space.txt\n" +
+                HASH + " 5 4000 dir/.svn/entries\n", "UTF-8");
+        SortedMap<String,DeduplicatingArtifactManager.Entry> manifest = DeduplicatingArtifactManager.readManifest(manifestFile);
+        assertEquals(4, manifest.size());
+
+        VirtualFile root = new DeduplicatingArtifactManager.ManifestVF(manifest, tmp.newFolder("archive"), store, "");
+        assertTrue(root.isDirectory());
+        VirtualFile[] kids = root.list();
+        assertEquals(2, kids.length);
+        assertEquals("dir", kids[0].getName());
+        assertTrue(kids[0].isDirectory());
+        assertFalse(kids[0].isFile());
+        assertEquals("top.txt", kids[1].getName());
+        assertTrue(kids[1].isFile());
+        assertEquals(1000, kids[1].lastModified());
+
+        VirtualFile dir = root.child("dir");
+        assertEquals(Arrays.asList("a.jar", "sub/b with space.txt"), Arrays.asList(dir.list("**")));
+        assertEquals(Arrays.asList("dir/a.jar"), Arrays.asList(root.list("**/*.jar")));
+        assertEquals(Arrays.asList("dir/a.jar", "dir/sub/b with space.txt"), Arrays.asList(root.list("dir/")));
+        // Ant's default excludes apply, as when browsing archived files
+        assertEquals(Collections.emptyList(), Arrays.asList(root.list("**/.svn/**")));
+
+        VirtualFile b = root.child("dir/sub/b with space.txt");
+        assertEquals(5, b.length());
+        assertEquals("hello", IOUtils.toString(b.open(), "US-ASCII"));
+        assertEquals(root.child("dir/sub"), b.getParent());
+        assertFalse(root.child("dir/nothing").exists());
+        assertFalse(root.child("di").exists());
+
+        assertTrue(new DeduplicatingArtifactManager.ManifestVF(new TreeMap<String,DeduplicatingArtifactManager.Entry>(), tmp.getRoot(), store, "").isDirectory());
+    }
+
+    @Test
+    public void collectLeftovers() throws Exception {
+        ArtifactBlobStore store = new ArtifactBlobStore(tmp.newFolder());
+        File f = store.createTempFile();
+        FileUtils.writeStringToFile(f, "hello", "US-ASCII");
+        store.put(f, HASH);
+        assertTrue(store.retain(HASH, 5));
+        assertTrue(store.retain(HASH, 5));
+        File leftover = store.createTempFile();
+
+        // too recent to tell
+        assertEquals(0, store.collect(Collections.singletonMap(HASH, 1), 60000));
+        assertEquals(3, store.getReferences(HASH));
+        assertTrue(leftover.exists());
+
+        assertEquals(0, store.collect(Collections.singletonMap(HASH, 1), -1));
+        assertEquals(1, store.getReferences(HASH));
+        assertFalse(leftover.exists());
+
+        assertEquals(1, store.collect(Collections.<String,Integer>emptyMap(), -1));
+        assertFalse(store.getBlob(HASH).exists());
+        assertEquals(0, store.getReferences(HASH));
+    }
+}
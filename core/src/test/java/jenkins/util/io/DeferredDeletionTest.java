@@ -0,0 +1,67 @@
+package jenkins.util.io;
+
+import java.io.File;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class DeferredDeletionTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void shutdown() {
+        DeferredDeletion.shutdown();
+    }
+
+    @Test
+    public void movesToTrashThenDeletes() throws Exception {
+        File builds = tmp.newFolder("builds");
+        File build = new File(builds, "1");
+        FileUtils.writeStringToFile(new File(build, "archive/a/b/c.txt"), "c");
+        FileUtils.writeStringToFile(new File(build, "log"), "log");
+        long deleted = DeferredDeletion.getDeleted();
+
+        DeferredDeletion.delete(build);
+        assertFalse(build.exists());
+        DeferredDeletion.waitForAll();
+
+        assertEquals(deleted + 1, DeferredDeletion.getDeleted());
+        assertEquals(0, DeferredDeletion.getPending());
+        assertFalse("empty trash is removed", new File(builds, DeferredDeletion.TRASH).exists());
+        assertTrue(builds.isDirectory());
+    }
+
+    @Test
+    public void deletesLeftovers() throws Exception {
+        File builds = tmp.newFolder("builds");
+        File leftover = new File(builds, DeferredDeletion.TRASH + "/1.123.1");
+        FileUtils.writeStringToFile(new File(leftover, "log"), "log");
+        File build = new File(builds, "2");
+        assertTrue(build.mkdirs());
+
+        DeferredDeletion.delete(build);
+        DeferredDeletion.waitForAll();
+
+        assertFalse(leftover.exists());
+        assertFalse(new File(builds, DeferredDeletion.TRASH).exists());
+    }
+
+    @Test
+    public void missing() throws Exception {
+        File builds = tmp.newFolder("builds");
+        long requested = DeferredDeletion.getRequested();
+        try {
+            DeferredDeletion.delete(new File(builds, "3"));
+            fail();
+        } catch (java.io.IOException x) {
+            // expected
+        }
+        assertEquals(requested, DeferredDeletion.getRequested());
+        assertEquals(0, DeferredDeletion.getPending());
+    }
+}
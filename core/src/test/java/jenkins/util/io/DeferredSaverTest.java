@@ -0,0 +1,197 @@
+package jenkins.util.io;
+
+import hudson.BulkChange;
+import hudson.model.Saveable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeferredSaverTest {
+
+    private final List<String> log = new ArrayList<String>();
+
+    @Before
+    public void enable() {
+        DeferredSaver.ENABLED = true;
+        DeferredSaver.WINDOW = 60000; // tests flush explicitly
+        DeferredSaver.start();
+    }
+
+    @After
+    public void disable() {
+        DeferredSaver.shutdown();
+        DeferredSaver.ENABLED = false;
+    }
+
+    @Test
+    public void coalesces() throws Exception {
+        Thing a = new Thing("a");
+        Thing b = new Thing("b");
+        long avoided = DeferredSaver.getSavesAvoided();
+        for (int i = 0; i < 10; i++) {
+            a.save();
+            b.save();
+        }
+        assertTrue(log.isEmpty());
+        DeferredSaver.flushAll();
+        assertEquals("[a, b]", log.toString());
+        assertEquals(avoided + 18, DeferredSaver.getSavesAvoided());
+    }
+
+    @Test
+    public void preservesFirstRequestOrder() throws Exception {
+        Thing a = new Thing("a");
+        Thing b = new Thing("b");
+        b.save();
+        a.save();
+        b.save();
+        DeferredSaver.flushAll();
+        assertEquals("[b, a]", log.toString());
+    }
+
+    @Test
+    public void cancelAndFlush() throws Exception {
+        Thing a = new Thing("a");
+        Thing b = new Thing("b");
+        a.save();
+        b.save();
+        DeferredSaver.cancel(a);
+        DeferredSaver.flush(b);
+        assertEquals("[b]", log.toString());
+        DeferredSaver.flushAll();
+        assertEquals("[b]", log.toString());
+    }
+
+    @Test
+    public void cancelWhileFlushing() throws Exception {
+        final Thing a = new Thing("a");
+        a.save();
+        Thread flusher;
+        synchronized (a) { // as a delete() would
+            flusher = new Thread() {
+                @Override public void run() {
+                    try {
+                        DeferredSaver.flushAll();
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            };
+            flusher.start();
+            while (flusher.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(10);
+            }
+            DeferredSaver.cancel(a);
+        }
+        flusher.join();
+        assertTrue(log.isEmpty());
+
+        // later saves are not deferred, as they would be written without deferral too
+        a.save();
+        assertEquals("[a]", log.toString());
+    }
+
+    @Test
+    public void failuresAreReported() throws Exception {
+        Thing a = new Thing("a");
+        Thing b = new Thing("b");
+        a.failing = true;
+        a.save();
+        b.save();
+        try {
+            DeferredSaver.flushAll();
+            fail();
+        } catch (IOException e) {
+            assertEquals("a is broken", e.getMessage());
+        }
+        assertEquals("[b]", log.toString());
+
+        // the next save is performed right away, so the caller sees the failure
+        try {
+            a.save();
+            fail();
+        } catch (IOException e) {
+            assertEquals("a is broken", e.getMessage());
+        }
+        a.failing = false;
+        a.save();
+        assertEquals("[b]", log.toString());
+        DeferredSaver.flushAll();
+        assertEquals("[b, a]", log.toString());
+    }
+
+    @Test
+    public void savesAfterShutdownAreWritten() throws Exception {
+        Thing a = new Thing("a");
+        Thing b = new Thing("b");
+        a.save();
+        DeferredSaver.shutdown();
+        assertEquals("[a]", log.toString());
+        // say, a build aborted by a later terminator
+        b.save();
+        assertEquals("[a, b]", log.toString());
+    }
+
+    @Test
+    public void onlyDeferredSavesAreCounted() throws Exception {
+        Thing a = new Thing("a");
+        long requested = DeferredSaver.getSavesRequested();
+        long avoided = DeferredSaver.getSavesAvoided();
+        a.save();
+        DeferredSaver.cancel(a);
+        a.save(); // written right away
+        assertEquals(requested + 1, DeferredSaver.getSavesRequested());
+        assertEquals("the cancelled save", avoided + 1, DeferredSaver.getSavesAvoided());
+    }
+
+    @Test
+    public void bulkChange() throws Exception {
+        Thing a = new Thing("a");
+        BulkChange bc = new BulkChange(a);
+        try {
+            a.save();
+            DeferredSaver.flushAll();
+            assertTrue(log.isEmpty());
+            bc.commit();
+        } finally {
+            bc.abort();
+        }
+        DeferredSaver.flushAll();
+        assertEquals("[a]", log.toString());
+    }
+
+    @Test
+    public void writesInBackground() throws Exception {
+        DeferredSaver.WINDOW = 10;
+        Thing a = new Thing("a");
+        a.save();
+        for (int i = 0; i < 500 && a.saved == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, a.saved);
+    }
+
+    private class Thing implements Saveable {
+        final String name;
+        volatile int saved;
+        volatile boolean failing;
+
+        Thing(String name) {
+            this.name = name;
+        }
+
+        public synchronized void save() throws IOException {
+            if (BulkChange.contains(this) || DeferredSaver.defer(this)) return;
+            if (failing) throw new IOException(name + " is broken");
+            synchronized (log) {
+                log.add(name);
+            }
+            saved++;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package hudson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.AgentProtocol;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import static org.junit.Assert.*;
+
+public class TcpSlaveAgentListenerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void protocolNameSentInPieces() throws Exception {
+        TcpSlaveAgentListener listener = j.jenkins.getTcpSlaveAgentListener();
+        assertNotNull(listener);
+        assertTrue(new TcpSlaveAgentListener.PingAgentProtocol().connect(new Socket("localhost", listener.getPort())));
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        new DataOutputStream(buf).writeUTF("Protocol:Ping");
+        Socket s = new Socket("localhost", listener.getPort());
+        try {
+            OutputStream out = s.getOutputStream();
+            for (byte b : buf.toByteArray()) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(10);
+            }
+            InputStream in = s.getInputStream();
+            assertEquals("Ping\n", IOUtils.toString(in, "UTF-8"));
+        } finally {
+            s.close();
+        }
+
+        // recorded once the handler thread is done with the connection
+        TcpSlaveAgentListener.HandshakeStatistics stats;
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((stats = listener.getHandshakeStatistics().get("Ping")) == null || stats.getCount() < 2) {
+            assertTrue("statistics recorded", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+        assertEquals(2, stats.getCount());
+        assertEquals(0, stats.getFailures());
+    }
+
+    @Test
+    public void longRunningProtocolsDoNotExhaustThePool() throws Exception {
+        TcpSlaveAgentListener listener = j.jenkins.getTcpSlaveAgentListener();
+        assertNotNull(listener);
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i <= TcpSlaveAgentListener.HANDLER_THREADS; i++) {
+                Socket s = new Socket("localhost", listener.getPort());
+                sockets.add(s);
+                new DataOutputStream(s.getOutputStream()).writeUTF("Protocol:Blocking");
+            }
+            assertTrue(new TcpSlaveAgentListener.PingAgentProtocol().connect(new Socket("localhost", listener.getPort())));
+            assertNull(listener.getHandshakeStatistics().get("Blocking"));
+        } finally {
+            for (Socket s : sockets) {
+                s.close();
+            }
+        }
+    }
+
+    /**
+     * Keeps the thread for as long as the connection lasts, like protocols written before {@link AgentProtocol#isHandshakeOnly()}.
+     */
+    @TestExtension("longRunningProtocolsDoNotExhaustThePool")
+    public static class BlockingProtocol extends AgentProtocol {
+        @Override
+        public String getName() {
+            return "Blocking";
+        }
+
+        @Override
+        public void handle(Socket socket) throws IOException, InterruptedException {
+            try {
+                IOUtils.copy(socket.getInputStream(), new ByteArrayOutputStream());
+            } finally {
+                socket.close();
+            }
+        }
+    }
+}
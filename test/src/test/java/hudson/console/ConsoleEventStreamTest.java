@@ -0,0 +1,157 @@
+package hudson.console;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.util.OneShotEvent;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ConsoleEventStreamTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void streamRunningBuild() throws Exception {
+        final OneShotEvent started = new OneShotEvent();
+        final OneShotEvent release = new OneShotEvent();
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                for (int i = 1; i <= 3; i++) {
+                    listener.getLogger().println("before " + i);
+                }
+                started.signal();
+                release.block();
+                for (int i = 1; i <= 3; i++) {
+                    listener.getLogger().println("after " + i);
+                }
+                return true;
+            }
+        });
+        FreeStyleBuild b = p.scheduleBuild2(0).waitForStart();
+        started.block();
+
+        EventReader stream = new EventReader(b, null);
+        List<Event> events = new ArrayList<Event>();
+        StringBuilder data = new StringBuilder();
+        // read what the build wrote so far, then let it finish
+        while (!data.toString().contains("before 3")) {
+            Event e = stream.next();
+            events.add(e);
+            data.append(e.data);
+        }
+        assertThat(data.toString(), not(containsString("after 1")));
+        long resumeAt = events.get(events.size() - 1).id;
+        release.signal();
+
+        Event e;
+        do {
+            e = stream.next();
+            assertNotNull("stream ended without an end event", e);
+            events.add(e);
+            data.append(e.data);
+        } while (!"end".equals(e.name));
+        assertNull(stream.next());
+        stream.close();
+        j.assertBuildStatusSuccess(j.waitForCompletion(b));
+
+        // every event ends at a line boundary, the last one at the end of the log
+        byte[] log = FileUtils.readFileToByteArray(b.getLogFile());
+        for (Event ev : events) {
+            assertTrue("event at " + ev.id + " of " + log.length, ev.id > 0 && ev.id <= log.length);
+            assertEquals("event at " + ev.id, '\n', log[(int) ev.id - 1]);
+        }
+        assertEquals(log.length, e.id);
+        assertThat(data.toString(), containsString("after 3"));
+
+        // a reconnecting browser resumes right after the last event it got
+        EventReader resumed = new EventReader(b, resumeAt);
+        StringBuilder rest = new StringBuilder();
+        while ((e = resumed.next()) != null && !"end".equals(e.name)) {
+            rest.append(e.data);
+        }
+        resumed.close();
+        assertNotNull("resumed stream ended without an end event", e);
+        assertThat(rest.toString(), not(containsString("before")));
+        assertThat(rest.toString(), startsWith("after 1"));
+        assertThat(rest.toString(), containsString("after 3"));
+    }
+
+    private static final class Event {
+        String name;
+        long id = -1;
+        StringBuilder data = new StringBuilder();
+    }
+
+    /**
+     * Minimal server-sent event client.
+     */
+    private final class EventReader {
+        private final HttpURLConnection con;
+        private final BufferedReader in;
+
+        EventReader(FreeStyleBuild b, Long lastEventId) throws IOException {
+            con = (HttpURLConnection) new URL(j.getURL(), b.getUrl() + "consoleStream").openConnection();
+            con.setReadTimeout(60000);
+            if (lastEventId != null) {
+                con.setRequestProperty("Last-Event-ID", String.valueOf(lastEventId));
+            }
+            assertEquals(200, con.getResponseCode());
+            assertThat(con.getContentType(), startsWith("text/event-stream"));
+            in = new BufferedReader(new InputStreamReader(con.getInputStream(), "UTF-8"));
+        }
+
+        /**
+         * Reads the next event, skipping comments, or returns null at the end of the response.
+         */
+        Event next() throws IOException {
+            Event e = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    if (e != null) {
+                        return e;
+                    }
+                    continue;
+                }
+                if (line.startsWith(":")) {
+                    continue;
+                }
+                if (e == null) {
+                    e = new Event();
+                }
+                if (line.startsWith("event: ")) {
+                    e.name = line.substring(7);
+                } else if (line.startsWith("id: ")) {
+                    e.id = Long.parseLong(line.substring(4));
+                } else if (line.startsWith("data: ")) {
+                    e.data.append(line.substring(6)).append('\n');
+                }
+            }
+            return e;
+        }
+
+        void close() throws IOException {
+            in.close();
+            con.disconnect();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package hudson.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.*;
+
+public class ConsoleNoteTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void roundTrip() throws Exception {
+        String encoded = new HyperlinkNote("/job/a/", 1).encode();
+        ConsoleNote first = decode(encoded);
+        assertTrue(first instanceof HyperlinkNote);
+        assertEquals(encoded, first.encode());
+
+        // a different note is not mixed up with the first one
+        String other = new HyperlinkNote("/job/b/", 1).encode();
+        assertNotEquals(encoded, other);
+        assertEquals(other, decode(other).encode());
+
+        // every caller gets its own instance
+        assertNotSame(first, decode(encoded));
+    }
+
+    @Test
+    public void repeatsAreCached() throws Exception {
+        int encodedHits = ConsoleNote.ENCODED.hits;
+        String encoded = new HyperlinkNote("/job/repeated/", 1).encode();
+        assertEquals(encoded, new HyperlinkNote("/job/repeated/", 1).encode());
+        assertEquals(encodedHits + 1, ConsoleNote.ENCODED.hits);
+
+        int decodedHits = ConsoleNote.DECODED.hits;
+        decode(encoded);
+        decode(encoded);
+        assertEquals(decodedHits + 1, ConsoleNote.DECODED.hits);
+    }
+
+    @Test
+    public void largeNotesAreNotCached() throws Exception {
+        String url = "/job/" + StringUtils.repeat("x", ConsoleNote.MAX_DICTIONARY_ENTRY) + "/";
+        int encodedHits = ConsoleNote.ENCODED.hits;
+        String encoded = new HyperlinkNote(url, 1).encode();
+        assertEquals(encoded, new HyperlinkNote(url, 1).encode());
+        assertEquals(encodedHits, ConsoleNote.ENCODED.hits);
+        assertEquals(encoded, decode(encoded).encode());
+    }
+
+    private static ConsoleNote decode(String encoded) throws Exception {
+        return ConsoleNote.readFrom(new DataInputStream(new ByteArrayInputStream(encoded.getBytes("US-ASCII"))));
+    }
+}
@@ -0,0 +1,78 @@
+package hudson.console;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.*;
+
+public class RenderedConsoleCacheTest {
+
+    @Rule public JenkinsRule r = new JenkinsRule();
+
+    @Before public void enable() {
+        RenderedConsoleCache.ENABLED = true;
+    }
+
+    @After public void disable() {
+        RenderedConsoleCache.ENABLED = false;
+    }
+
+    @Test public void renderingsAreSharedBetweenViewers() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        FreeStyleBuild b = r.buildAndAssertSuccess(p);
+        File dir = new File(b.getRootDir(), "console-html");
+
+        String alice = render(b, "alice", 0);
+        assertEquals(1, dir.list().length);
+        assertEquals(alice, render(b, "alice", 0));
+        assertEquals(1, dir.list().length);
+
+        // the markup doesn't depend on who looks at it
+        assertEquals(alice, render(b, "bob", 0));
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test public void renderingsAreBounded() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        FreeStyleBuild b = r.buildAndAssertSuccess(p);
+        for (int i = 0; i < RenderedConsoleCache.MAX_RENDERINGS + 3; i++) {
+            render(b, "alice", i);
+        }
+        assertEquals(RenderedConsoleCache.MAX_RENDERINGS, new File(b.getRootDir(), "console-html").list().length);
+    }
+
+    @Test public void disabled() throws Exception {
+        RenderedConsoleCache.ENABLED = false;
+        FreeStyleProject p = r.createFreeStyleProject();
+        FreeStyleBuild b = r.buildAndAssertSuccess(p);
+        render(b, "alice", 0);
+        assertFalse(new File(b.getRootDir(), "console-html").exists());
+    }
+
+    private static String render(final FreeStyleBuild b, String user, final long offset) {
+        Authentication auth = new UsernamePasswordAuthenticationToken(user, "", new GrantedAuthority[0]);
+        final StringWriter w = new StringWriter();
+        ACL.impersonate(auth, new Runnable() {
+            @Override public void run() {
+                try {
+                    RenderedConsoleCache.writeHtmlTo(b, b.getLogText(), offset, w);
+                } catch (IOException x) {
+                    throw new RuntimeException(x);
+                }
+            }
+        });
+        return w.toString();
+    }
+}
@@ -25,6 +25,7 @@ package hudson.model;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import hudson.FilePath;
 import hudson.Functions;
@@ -38,6 +39,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.util.zip.ZipFile;
 
 import org.junit.Assume;
@@ -51,6 +53,8 @@ import org.jvnet.hudson.test.TestBuilder;
 
 import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.UnexpectedPage;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 
 /**
@@ -200,6 +204,48 @@ public class DirectoryBrowserSupportTest {
         }
     }
 
+    @Test
+    public void conditionalAndRangeRequests() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.setScm(new SingleFileSCM("artifact.out", "Hello world!"));
+        p.getPublishersList().add(new ArtifactArchiver("*", "", true));
+        assertEquals(Result.SUCCESS, p.scheduleBuild2(0).get().getResult());
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        wc.getOptions().setThrowExceptionOnFailingStatusCode(false);
+        URL url = new URL(j.getURL(), "job/" + p.getName() + "/lastSuccessfulBuild/artifact/artifact.out");
+
+        WebResponse full = wc.getPage(new WebRequest(url)).getWebResponse();
+        assertEquals(200, full.getStatusCode());
+        String etag = full.getResponseHeaderValue("ETag");
+        assertNotNull(etag);
+        assertEquals("bytes", full.getResponseHeaderValue("Accept-Ranges"));
+
+        WebRequest req = new WebRequest(url);
+        req.setAdditionalHeader("If-None-Match", etag);
+        assertEquals(304, wc.getPage(req).getWebResponse().getStatusCode());
+
+        req = new WebRequest(url);
+        req.setAdditionalHeader("Range", "bytes=6-");
+        WebResponse partial = wc.getPage(req).getWebResponse();
+        assertEquals(206, partial.getStatusCode());
+        assertEquals("bytes 6-11/12", partial.getResponseHeaderValue("Content-Range"));
+        assertEquals("world!", partial.getContentAsString());
+
+        req = new WebRequest(url);
+        req.setAdditionalHeader("Range", "bytes=-1");
+        assertEquals("!", wc.getPage(req).getWebResponse().getContentAsString());
+
+        req = new WebRequest(url);
+        req.setAdditionalHeader("Range", "bytes=0-4");
+        req.setAdditionalHeader("If-Range", "\"outdated\"");
+        assertEquals(200, wc.getPage(req).getWebResponse().getStatusCode());
+
+        req = new WebRequest(url);
+        req.setAdditionalHeader("Range", "bytes=100-");
+        assertEquals(416, wc.getPage(req).getWebResponse().getStatusCode());
+    }
+
     private File download(UnexpectedPage page) throws IOException {
 
         File file = File.createTempFile("DirectoryBrowserSupport", "zipDownload");
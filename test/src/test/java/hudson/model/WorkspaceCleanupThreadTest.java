@@ -31,14 +31,18 @@ import hudson.slaves.DumbSlave;
 import hudson.slaves.WorkspaceList;
 import hudson.util.StreamTaskListener;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jenkins.MasterToSlaveFileCallable;
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.*;
 
 import org.junit.Assume;
@@ -194,6 +198,35 @@ public class WorkspaceCleanupThreadTest {
         assertFalse("temporary directory should be cleaned up as well", tmp.exists());
     }
 
+    @Test public void cleanUpNodesInParallel() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        DumbSlave s1 = r.createOnlineSlave();
+        FilePath ws1 = createOldWorkspaceOn(s1, p);
+        ws1.child("data").write("0123456789", null);
+        DumbSlave s2 = r.createOnlineSlave();
+        FilePath ws2 = createOldWorkspaceOn(s2, p);
+        ws2.child("data").write("0123456789", null);
+        createOldWorkspaceOn(r.createOnlineSlave(), p);
+        // the last node keeps its workspace, so the SCM is asked about the other two
+        p.setScm(new RendezvousSCM(2));
+
+        int concurrency = WorkspaceCleanupThread.concurrency;
+        WorkspaceCleanupThread.concurrency = 2;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new WorkspaceCleanupThread().execute(new StreamTaskListener(out));
+        } finally {
+            WorkspaceCleanupThread.concurrency = concurrency;
+        }
+
+        assertTrue("both nodes were checked at the same time", RendezvousSCM.met);
+        assertFalse(ws1.exists());
+        assertFalse(ws2.exists());
+        String log = out.toString();
+        assertThat(log, containsString("Deleted 1 workspaces on " + s1.getDisplayName() + ", freeing 10 B"));
+        assertThat(log, containsString("Deleted 1 workspaces on " + s2.getDisplayName() + ", freeing 10 B"));
+    }
+
     private FilePath createOldWorkspaceOn(Node slave, FreeStyleProject p) throws Exception {
         p.setAssignedNode(slave);
         FreeStyleBuild b1 = r.assertBuildStatusSuccess(p.scheduleBuild2(0));
@@ -222,6 +255,30 @@ public class WorkspaceCleanupThreadTest {
         }
     }
 
+    /**
+     * Lets deletion go ahead once the given number of nodes are being checked at the same time.
+     */
+    private static final class RendezvousSCM extends NullSCM {
+        private static CountDownLatch arrived;
+        private static volatile boolean met;
+
+        RendezvousSCM(int parties) {
+            arrived = new CountDownLatch(parties);
+            met = false;
+        }
+
+        @Override
+        public boolean processWorkspaceBeforeDeletion(
+                Job<?, ?> project, FilePath workspace, Node node
+        ) throws IOException, InterruptedException {
+            arrived.countDown();
+            if (arrived.await(30, TimeUnit.SECONDS)) {
+                met = true;
+            }
+            return true;
+        }
+    }
+
     private static final class Touch extends MasterToSlaveFileCallable<Void> {
         private static final long serialVersionUID = 1L;
         private final long time;
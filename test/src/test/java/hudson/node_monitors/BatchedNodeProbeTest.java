@@ -0,0 +1,102 @@
+package hudson.node_monitors;
+
+import hudson.model.Computer;
+import hudson.node_monitors.DiskSpaceMonitorDescriptor.DiskSpace;
+import hudson.remoting.Callable;
+import hudson.slaves.DumbSlave;
+import hudson.util.ClockDifference;
+import java.io.IOException;
+import java.util.Map;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import static org.junit.Assert.*;
+
+public class BatchedNodeProbeTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void allMonitorsFromOneRound() throws Exception {
+        DumbSlave s = j.createOnlineSlave();
+        Computer c = s.toComputer();
+
+        Map<Computer,DiskSpace> disk = DiskSpaceMonitor.DESCRIPTOR.monitor();
+        Map<Computer,ClockDifference> clock = ClockMonitor.DESCRIPTOR.monitor();
+        ArchitectureMonitor.DescriptorImpl arch = j.jenkins.getDescriptorByType(ArchitectureMonitor.DescriptorImpl.class);
+        Map<Computer,String> archs = arch.monitor();
+
+        assertTrue(disk.containsKey(Jenkins.getInstance().toComputer()));
+        assertNotNull(disk.get(c));
+        assertNotNull(clock.get(c));
+        assertFalse(clock.get(c).isDangerous());
+        assertEquals(System.getProperty("os.name") + " (" + System.getProperty("os.arch") + ')', archs.get(c));
+
+        // the clock is read on its own, so that other monitors don't add to the skew
+        assertTrue(BatchedNodeProbe.INSTANCE.getParticipants().contains(arch));
+        assertFalse(BatchedNodeProbe.INSTANCE.getParticipants().contains(ClockMonitor.DESCRIPTOR));
+
+        // an agent that comes online gets looked at right away
+        DumbSlave s2 = j.createOnlineSlave();
+        assertNotNull(arch.monitor().get(s2.toComputer()));
+    }
+
+    @Test
+    public void hungMonitorDoesNotTakeOthersWithIt() throws Exception {
+        DumbSlave s = j.createOnlineSlave();
+        Computer c = s.toComputer();
+        ArchitectureMonitor.DescriptorImpl arch = j.jenkins.getDescriptorByType(ArchitectureMonitor.DescriptorImpl.class);
+        HangingMonitor.DescriptorImpl hanging = j.jenkins.getDescriptorByType(HangingMonitor.DescriptorImpl.class);
+        arch.monitor();
+
+        // the new participant starts a round including both
+        long start = System.currentTimeMillis();
+        assertNull(hanging.monitor().get(c));
+        assertTrue(System.currentTimeMillis() - start < arch.getMonitoringTimeOut());
+        assertTrue(BatchedNodeProbe.INSTANCE.getParticipants().contains(hanging));
+        assertNotNull(arch.monitor().get(c));
+    }
+
+    public static class HangingMonitor extends NodeMonitor {
+        @TestExtension("hungMonitorDoesNotTakeOthersWithIt")
+        public static class DescriptorImpl extends AbstractAsyncNodeMonitorDescriptor<String> {
+            public DescriptorImpl() {
+                super(HangingMonitor.class);
+            }
+
+            @Override
+            protected long getMonitoringTimeOut() {
+                return 4000;
+            }
+
+            @Override
+            protected Callable<String,IOException> createCallable(Computer c) {
+                return new Hang();
+            }
+
+            @Override
+            public String getDisplayName() {
+                return "Hanging";
+            }
+        }
+    }
+
+    private static final class Hang extends MasterToSlaveCallable<String,IOException> {
+        @Override
+        public String call() throws IOException {
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+                return null;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -36,18 +36,25 @@ import hudson.model.BuildListener;
 import hudson.model.Descriptor;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.Job;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.tasks.ArtifactArchiverTest.CreateArtifact;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jenkins.model.BackgroundBuildDiscarder;
+import jenkins.model.BuildDiscarder;
+import jenkins.util.io.DeferredDeletion;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -81,6 +88,66 @@ public class LogRotatorTest {
         assertEquals(3, numberOf(project.getLastFailedBuild()));
     }
 
+    @Test
+    public void inBackground() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setLogRotator(new LogRotator(-1, 2, -1, -1));
+        File dir1 = j.buildAndAssertSuccess(project).getRootDir();
+        boolean enabled = BackgroundBuildDiscarder.ENABLED;
+        boolean deferred = DeferredDeletion.ENABLED;
+        BackgroundBuildDiscarder.ENABLED = true;
+        DeferredDeletion.ENABLED = true;
+        BlockingDiscarder discarder = new BlockingDiscarder(new LogRotator(-1, 2, -1, -1));
+        project.setBuildDiscarder(discarder);
+        try {
+            long requested = BackgroundBuildDiscarder.getRequested();
+            long performed = BackgroundBuildDiscarder.getPerformed();
+            j.buildAndAssertSuccess(project);
+            // the build is over while the discarder is still running
+            assertTrue(discarder.started.await(30, TimeUnit.SECONDS));
+            assertEquals(performed, BackgroundBuildDiscarder.getPerformed());
+
+            // requests made meanwhile are merged into a single run
+            j.buildAndAssertSuccess(project);
+            BackgroundBuildDiscarder.schedule(project);
+            Future<Void> last = BackgroundBuildDiscarder.schedule(project);
+            discarder.release.countDown();
+            last.get(30, TimeUnit.SECONDS);
+            assertEquals(requested + 4, BackgroundBuildDiscarder.getRequested());
+            assertEquals(performed + 2, BackgroundBuildDiscarder.getPerformed());
+
+            assertEquals(null, project.getBuildByNumber(1));
+            assertFalse(dir1.exists());
+            DeferredDeletion.waitForAll();
+            assertEquals(0, DeferredDeletion.getPending());
+            assertEquals(2, project.getBuilds().size());
+        } finally {
+            discarder.release.countDown();
+            BackgroundBuildDiscarder.ENABLED = enabled;
+            DeferredDeletion.ENABLED = deferred;
+        }
+    }
+
+    /**
+     * Holds the first run of the discarder until released.
+     */
+    private static class BlockingDiscarder extends BuildDiscarder {
+        private final transient CountDownLatch started = new CountDownLatch(1);
+        private final transient CountDownLatch release = new CountDownLatch(1);
+        private final BuildDiscarder delegate;
+
+        BlockingDiscarder(BuildDiscarder delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void perform(Job<?,?> job) throws IOException, InterruptedException {
+            started.countDown();
+            release.await();
+            delegate.perform(job);
+        }
+    }
+
     @Test
     @Issue("JENKINS-2417")
     public void stableVsUnstable() throws Exception {